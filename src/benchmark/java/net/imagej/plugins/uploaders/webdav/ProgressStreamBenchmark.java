@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.plugins.uploaders.webdav.ProgressHttpEntityWrapper.ProgressFilterOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the overhead of progress reporting when writing 1 MiB through a
+ * {@link ProgressFilterOutputStream} with various buffer sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgressStreamBenchmark {
+
+	private static final int TOTAL = 1024 * 1024;
+
+	@Param({ "1", "512", "8192", "65536" })
+	public int bufferSize;
+
+	private byte[] buffer;
+
+	@Setup
+	public void setup() {
+		buffer = new byte[bufferSize];
+	}
+
+	@Benchmark
+	public void plain(final Blackhole blackhole) throws IOException {
+		write(new NullOutputStream(blackhole));
+	}
+
+	@Benchmark
+	public void withProgress(final Blackhole blackhole) throws IOException {
+		write(new ProgressFilterOutputStream(new NullOutputStream(blackhole), blackhole::consume, TOTAL));
+	}
+
+	private void write(final OutputStream out) throws IOException {
+		if (bufferSize == 1) {
+			for (int i = 0; i < TOTAL; i++) {
+				out.write(i);
+			}
+		} else {
+			for (int i = 0; i < TOTAL; i += bufferSize) {
+				out.write(buffer, 0, Math.min(bufferSize, TOTAL - i));
+			}
+		}
+	}
+
+	static class NullOutputStream extends OutputStream {
+		private final Blackhole blackhole;
+
+		NullOutputStream(final Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void write(final int b) {
+			blackhole.consume(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+			blackhole.consume(len);
+		}
+	}
+}
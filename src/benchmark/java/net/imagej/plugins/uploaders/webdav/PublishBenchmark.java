@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.updater.Uploadable;
+import net.imagej.updater.UploadableFile;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Publishes synthetic update sites to the in-process
+ * {@link WebDAVTestServer}, end to end.
+ * <p>
+ * Besides the wall time per publish, the auxiliary counters report the
+ * number of HTTP requests (including authentication challenges) and the
+ * number of bytes the server received per publish; together with the time,
+ * the latter gives the throughput.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PublishBenchmark {
+
+	/**
+	 * The shape of the update site: many small files, a few huge files, or
+	 * a deep directory tree.
+	 */
+	@Param({ "small", "huge", "deep" })
+	public String site;
+
+	@Param({ "1", "8" })
+	public int threads;
+
+	private File directory;
+	private List<Uploadable> sources;
+	private WebDAVTestServer server;
+	private WebDAVUploader uploader;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+		public long requests;
+		public long bytes;
+	}
+
+	@Setup(Level.Trial)
+	public void createSite() throws IOException {
+		directory = Files.createTempDirectory("publish-benchmark").toFile();
+		sources = new ArrayList<>();
+		final Random random = new Random(17);
+		if ("small".equals(site)) {
+			for (int i = 0; i < 300; i++) {
+				sources.add(createFile("jars/small-" + i + ".jar-20230101120000", 2000 + random.nextInt(20000), random));
+			}
+		} else if ("huge".equals(site)) {
+			for (int i = 0; i < 3; i++) {
+				sources.add(createFile("lib/huge-" + i + ".bin-20230101120000", 64 << 20, random));
+			}
+		} else {
+			for (int i = 0; i < 100; i++) {
+				sources.add(createFile("lib/level1-" + (i % 5) + "/level2-" + (i % 10) + "/level3-" + i + "/file.so-20230101120000",
+					5000, random));
+			}
+		}
+		sources.add(createFile("db.xml.gz.lock", 50000, random));
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteSite() {
+		deleteRecursively(directory);
+	}
+
+	@Setup(Level.Iteration)
+	public void startServer() throws IOException {
+		server = new WebDAVTestServer("user", "secret");
+		System.setProperty("webdav.threads", Integer.toString(threads));
+		// no journals: they would end up in the user's home directory
+		System.setProperty("webdav.journalDir", "");
+		try {
+			uploader = new WebDAVUploader();
+		} finally {
+			System.clearProperty("webdav.threads");
+			System.clearProperty("webdav.journalDir");
+		}
+		uploader.setBaseUrl(server.getURL());
+		uploader.setCredentials("user", "secret");
+	}
+
+	@TearDown(Level.Iteration)
+	public void stopServer() {
+		server.close();
+	}
+
+	@Benchmark
+	public void publish(final Counters counters) throws IOException {
+		uploader.upload(sources, Collections.singletonList("db.xml.gz"));
+		counters.requests += server.getRequestCount();
+		counters.bytes += server.getBytesReceived();
+	}
+
+	private Uploadable createFile(final String target, final int size, final Random random) throws IOException {
+		final File file = new File(directory, "file-" + sources.size());
+		final byte[] buffer = new byte[65536];
+		try (OutputStream out = new FileOutputStream(file)) {
+			for (int remaining = size; remaining > 0; remaining -= buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, Math.min(buffer.length, remaining));
+			}
+		}
+		return new UploadableFile(file, target);
+	}
+
+	private static void deleteRecursively(final File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (final File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
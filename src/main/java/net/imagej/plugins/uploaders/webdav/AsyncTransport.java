@@ -0,0 +1,474 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.auth.AuthCache;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.auth.BasicAuthCache;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.execchain.RequestAbortedException;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends the requests via the non-blocking client of HttpClient 5.
+ * <p>
+ * The Jackrabbit request classes, and hence the uploader, speak HttpClient 4.
+ * This transport copies the method, URI and headers of such a request into
+ * an HttpClient 5 request, streams its entity, and turns the response back
+ * into an HttpClient 4 response, so that Jackrabbit parses the multi-status
+ * bodies as usual. Retries, logging and cancellation stay in the uploader:
+ * aborting the HttpClient 4 request cancels the exchange.
+ * </p>
+ * <p>
+ * It is enabled via the <code>webdav.transport</code> system property:
+ * <dl>
+ * <dt>async</dt><dd>HTTP/1.1, or HTTP/2 if the server offers it via TLS (ALPN)</dd>
+ * <dt>http2</dt><dd>HTTP/2 only; all requests to a host are multiplexed over one connection</dd>
+ * </dl>
+ * The clients are shared by all uploaders, like the one of
+ * {@link ConnectionPool}; credentials and the authentication cache are per
+ * uploader.
+ * </p>
+ * <p>
+ * What this transport saves are connections, not threads: the uploader
+ * still waits for every response on one of its <code>webdav.threads</code>
+ * upload threads, and bodies other than small XML documents are written by
+ * an extra thread, since the uploader's entity wrappers (progress,
+ * throttling, compression) push their bytes via
+ * {@link HttpEntity#writeTo(OutputStream)}.
+ * </p>
+ */
+class AsyncTransport implements Transport {
+
+	/** The buffer between the thread writing an entity and the I/O reactor. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Repeatable bodies up to this size are buffered rather than streamed by a writer thread. */
+	private static final int SMALL_BODY_SIZE = 64 * 1024;
+
+	private static final AtomicInteger writerCount = new AtomicInteger();
+
+	private static final ExecutorService writers = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "WebDAV-async-writer-" + writerCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private static CloseableHttpAsyncClient negotiatingClient, http2Client;
+
+	private final CloseableHttpAsyncClient client;
+
+	/** Remembers the authentication schemes of the uploader using this transport. */
+	private final AuthCache authCache = new BasicAuthCache();
+
+	/**
+	 * @param http2Only whether to speak HTTP/2 exclusively, or to negotiate the protocol version
+	 */
+	AsyncTransport(final boolean http2Only) {
+		client = getClient(http2Only);
+	}
+
+	/**
+	 * Returns the transport configured via the <code>webdav.transport</code>
+	 * system property, or <code>null</code> for the classic, blocking client.
+	 */
+	static Transport create() {
+		final String mode = System.getProperty("webdav.transport", "classic");
+		if ("async".equals(mode)) return new AsyncTransport(false);
+		if ("http2".equals(mode)) return new AsyncTransport(true);
+		return null;
+	}
+
+	private static synchronized CloseableHttpAsyncClient getClient(final boolean http2Only) {
+		CloseableHttpAsyncClient client = http2Only ? http2Client : negotiatingClient;
+		if (client == null) {
+			if (http2Only) {
+				client = http2Client = HttpAsyncClients.customHttp2()
+						.disableAutomaticRetries()
+						.build();
+			} else {
+				client = negotiatingClient = HttpAsyncClients.custom()
+						.setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+								.setMaxConnTotal(ConnectionPool.getProperty("webdav.maxConnections", 50))
+								.setMaxConnPerRoute(ConnectionPool.getProperty("webdav.maxConnectionsPerRoute",
+									Math.max(10, ConnectionPool.getProperty("webdav.threads", 1))))
+								.build())
+						// the uploader's RetryPolicy decides which requests are retried, and when
+						.disableAutomaticRetries()
+						.build();
+			}
+			client.start();
+		}
+		return client;
+	}
+
+	@Override
+	public void resetAuthentication() {
+		authCache.clear();
+	}
+
+	@Override
+	public HttpResponse execute(final HttpUriRequest request, final HttpContext context) throws IOException {
+		final BasicHttpRequest message = new BasicHttpRequest(request.getMethod(), request.getURI());
+		for (final Header header : request.getAllHeaders()) {
+			if (!isManagedByClient(header.getName())) {
+				message.addHeader(header.getName(), header.getValue());
+			}
+		}
+		AsyncEntityProducer body = null;
+		if (request instanceof HttpEntityEnclosingRequest) {
+			final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null) body = isSmall(entity) ? buffer(entity) : new EntityProducer(entity);
+		}
+		final AsyncEntityProducer sentBody = body;
+
+		final long start = System.nanoTime();
+		int status = -1;
+		final Future<SimpleHttpResponse> future = client.execute(new BasicRequestProducer(message, body),
+			SimpleResponseConsumer.create(), createContext(context), null);
+		if (request instanceof HttpRequestBase) {
+			// lets Cancellation abort the exchange
+			((HttpRequestBase) request).setCancellable(() -> future.cancel(true));
+		}
+		try {
+			final HttpResponse response = toResponse(future.get());
+			status = response.getStatusLine().getStatusCode();
+			return response;
+		} catch (final InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + request.getMethod() + " " + request.getURI());
+		} catch (final CancellationException e) {
+			throw new RequestAbortedException("Request aborted");
+		} catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new ClientProtocolException(cause);
+		} finally {
+			UploadMetrics.getInstance().recordRequest(request.getMethod(), status,
+				System.nanoTime() - start, getSent(sentBody));
+		}
+	}
+
+	/**
+	 * Whether the given entity is a small document, such as the XML body of a
+	 * LOCK or PROPFIND, that can be sent without a writer thread.
+	 */
+	private static boolean isSmall(final HttpEntity entity) {
+		return entity.isRepeatable() && entity.getContentLength() >= 0 &&
+			entity.getContentLength() <= SMALL_BODY_SIZE &&
+			entity.getContentType() != null && entity.getContentEncoding() == null;
+	}
+
+	private static AsyncEntityProducer buffer(final HttpEntity entity) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream((int) entity.getContentLength());
+		entity.writeTo(out);
+		return new BasicAsyncEntityProducer(out.toByteArray(), ContentType.parse(entity.getContentType().getValue()));
+	}
+
+	private static long getSent(final AsyncEntityProducer body) {
+		if (body instanceof EntityProducer) return ((EntityProducer) body).getSent();
+		return body == null ? 0 : Math.max(0, body.getContentLength());
+	}
+
+	/**
+	 * Whether the given header is set by HttpClient 5 itself, according to
+	 * the entity and the negotiated protocol version.
+	 */
+	private static boolean isManagedByClient(final String name) {
+		return "Content-Length".equalsIgnoreCase(name) || "Transfer-Encoding".equalsIgnoreCase(name)
+			|| "Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+			|| "Keep-Alive".equalsIgnoreCase(name) || "Expect".equalsIgnoreCase(name);
+	}
+
+	/**
+	 * Translates the credentials and timeouts of the uploader's context.
+	 */
+	private HttpClientContext createContext(final HttpContext context) {
+		final org.apache.http.client.protocol.HttpClientContext source =
+			org.apache.http.client.protocol.HttpClientContext.adapt(context);
+		final BasicCredentialsProvider credentials = new BasicCredentialsProvider();
+		final CredentialsProvider provider = source.getCredentialsProvider();
+		final Credentials login = provider == null ? null : provider.getCredentials(org.apache.http.auth.AuthScope.ANY);
+		if (login != null && login.getUserPrincipal() != null) {
+			final String password = login.getPassword();
+			credentials.setCredentials(new AuthScope(null, -1), new UsernamePasswordCredentials(
+				login.getUserPrincipal().getName(), password == null ? new char[0] : password.toCharArray()));
+		}
+		final org.apache.http.client.config.RequestConfig config = source.getRequestConfig();
+		final HttpClientContext result = HttpClientContext.create();
+		result.setCredentialsProvider(credentials);
+		result.setAuthCache(authCache);
+		result.setRequestConfig(RequestConfig.custom()
+			.setConnectionRequestTimeout(toTimeout(config.getConnectionRequestTimeout()))
+			.setResponseTimeout(toTimeout(config.getSocketTimeout()))
+			.setExpectContinueEnabled(config.isExpectContinueEnabled())
+			.build());
+		return result;
+	}
+
+	private static Timeout toTimeout(final int millis) {
+		return Timeout.ofMilliseconds(Math.max(0, millis));
+	}
+
+	/**
+	 * Turns the given response into an HttpClient 4 response with a buffered
+	 * entity.
+	 */
+	private static HttpResponse toResponse(final SimpleHttpResponse response) {
+		final org.apache.hc.core5.http.ProtocolVersion version = response.getVersion();
+		final BasicHttpResponse result = new BasicHttpResponse(version == null ? HttpVersion.HTTP_1_1 :
+			new ProtocolVersion(version.getProtocol(), version.getMajor(), version.getMinor()),
+			response.getCode(), response.getReasonPhrase());
+		for (final org.apache.hc.core5.http.Header header : response.getHeaders()) {
+			result.addHeader(header.getName(), header.getValue());
+		}
+		final byte[] body = response.getBodyBytes();
+		if (body != null) {
+			final ByteArrayEntity entity = new ByteArrayEntity(body);
+			final ContentType type = response.getContentType();
+			if (type != null) entity.setContentType(type.toString());
+			result.setEntity(entity);
+		}
+		return result;
+	}
+
+	/**
+	 * Produces the body of a request by writing the HttpClient 4 entity on a
+	 * separate thread, so that the entity wrappers reporting the progress,
+	 * throttling the bandwidth and compressing the content work as with the
+	 * classic transport.
+	 * <p>
+	 * The writer blocks while the buffer is full, and the I/O reactor drains
+	 * the buffer whenever the connection can take more data. When the client
+	 * sends the body again (e.g. after an authentication challenge), the
+	 * current writer is stopped and a new one started.
+	 * </p>
+	 */
+	private static class EntityProducer implements AsyncEntityProducer {
+
+		private final HttpEntity entity;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/** Counts the attempts to send the body; writers of earlier attempts stop. */
+		private int attempt;
+		private boolean writing, written;
+		private IOException failure;
+		private DataStreamChannel channel;
+		/** The bytes written to the connection, by all attempts. */
+		private long sent;
+
+		private EntityProducer(final HttpEntity entity) {
+			this.entity = entity;
+		}
+
+		@Override
+		public long getContentLength() {
+			return entity.getContentLength();
+		}
+
+		@Override
+		public String getContentType() {
+			final Header type = entity.getContentType();
+			return type == null ? null : type.getValue();
+		}
+
+		@Override
+		public String getContentEncoding() {
+			final Header encoding = entity.getContentEncoding();
+			return encoding == null ? null : encoding.getValue();
+		}
+
+		@Override
+		public boolean isChunked() {
+			return entity.isChunked();
+		}
+
+		@Override
+		public Set<String> getTrailerNames() {
+			return null;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return entity.isRepeatable();
+		}
+
+		@Override
+		public synchronized int available() {
+			// a finished body still needs to end the stream
+			return buffer.position() > 0 || !written ? buffer.position() : 1;
+		}
+
+		@Override
+		public synchronized void produce(final DataStreamChannel channel) throws IOException {
+			if (this.channel != channel) {
+				// a new exchange
+				if (this.channel != null) reset();
+				this.channel = channel;
+			}
+			if (!writing) {
+				writing = true;
+				final int current = attempt;
+				writers.execute(() -> writeEntity(current));
+			}
+			if (buffer.position() > 0) {
+				buffer.flip();
+				sent += channel.write(buffer);
+				buffer.compact();
+				notifyAll();
+			}
+			if (buffer.position() > 0 || !written) return;
+			if (failure != null) throw failure;
+			channel.endStream();
+		}
+
+		private synchronized long getSent() {
+			return sent;
+		}
+
+		private void writeEntity(final int current) {
+			IOException error = null;
+			try {
+				entity.writeTo(new OutputStream() {
+
+					@Override
+					public void write(final int b) throws IOException {
+						write(new byte[] { (byte) b }, 0, 1);
+					}
+
+					@Override
+					public void write(final byte[] b, final int off, final int len) throws IOException {
+						EntityProducer.this.write(current, b, off, len);
+					}
+				});
+			} catch (final IOException e) {
+				error = e;
+			} catch (final RuntimeException e) {
+				error = new IOException(e);
+			}
+			final DataStreamChannel channel;
+			synchronized (this) {
+				if (current != attempt) return;
+				written = true;
+				failure = error;
+				channel = this.channel;
+			}
+			channel.requestOutput();
+		}
+
+		private void write(final int current, final byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				final DataStreamChannel channel;
+				synchronized (this) {
+					while (current == attempt && !buffer.hasRemaining()) {
+						try {
+							wait();
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("Interrupted while sending the request body");
+						}
+					}
+					if (current != attempt) throw new InterruptedIOException("The request was aborted");
+					final int count = Math.min(len, buffer.remaining());
+					buffer.put(b, off, count);
+					off += count;
+					len -= count;
+					channel = this.channel;
+				}
+				channel.requestOutput();
+			}
+		}
+
+		/** Stops the current writer, if any. */
+		private synchronized void reset() {
+			attempt++;
+			writing = written = false;
+			failure = null;
+			channel = null;
+			buffer.clear();
+			notifyAll();
+		}
+
+		@Override
+		public void failed(final Exception cause) {
+			reset();
+		}
+
+		@Override
+		public void releaseResources() {
+			reset();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import net.imagej.updater.Uploadable;
+
+/**
+ * An upload running in the background, see
+ * {@link WebDAVUploader#uploadAsync(List, List)}.
+ * <p>
+ * The upload can be cancelled by cancelling the future of the session (or
+ * by calling {@link #cancel()}): the requests in flight are aborted right
+ * away, the locks are released, and the futures of the files that were not
+ * uploaded yet are cancelled, too.
+ * </p>
+ */
+public class AsyncUpload {
+
+	private final CompletableFuture<Void> session = new CompletableFuture<>();
+	private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+	private final Map<String, CompletableFuture<Void>> files = new LinkedHashMap<>();
+	private final Cancellation cancellation = new Cancellation();
+
+	AsyncUpload(final List<Uploadable> sources) {
+		for (final Uploadable source : sources) {
+			files.put(source.getFilename(), new CompletableFuture<>());
+		}
+		session.whenComplete((result, failure) -> {
+			if (session.isCancelled()) cancellation.cancel();
+		});
+	}
+
+	/**
+	 * Returns the future of the whole upload, which completes when all files
+	 * are uploaded and the lock files were moved to their final names.
+	 * Cancelling it cancels the upload.
+	 */
+	public CompletableFuture<Void> getSession() {
+		return session;
+	}
+
+	/**
+	 * Returns the futures of the files, keyed by target path. A file's future
+	 * completes when the file was uploaded (or was found to be on the server
+	 * already); users of the update site only see it once the session
+	 * completes.
+	 */
+	public Map<String, CompletableFuture<Void>> getFiles() {
+		return Collections.unmodifiableMap(files);
+	}
+
+	/**
+	 * Returns the future of the given file, or null if it is not part of this
+	 * upload.
+	 */
+	public CompletableFuture<Void> getFile(final String path) {
+		return files.get(path);
+	}
+
+	/**
+	 * Cancels the upload.
+	 * 
+	 * @return a future that completes once the upload stopped and released
+	 *         its locks
+	 */
+	public CompletableFuture<Void> cancel() {
+		session.cancel(true);
+		return terminated;
+	}
+
+	Cancellation getCancellation() {
+		return cancellation;
+	}
+
+	void uploaded(final Uploadable source) {
+		final CompletableFuture<Void> file = files.get(source.getFilename());
+		if (file != null) file.complete(null);
+	}
+
+	void failed(final Uploadable source, final Throwable failure) {
+		final CompletableFuture<Void> file = files.get(source.getFilename());
+		if (file != null) file.completeExceptionally(failure);
+	}
+
+	interface Task {
+		void run() throws Exception;
+	}
+
+	/** Runs the upload, completing the futures. */
+	void run(final Task task) {
+		Throwable failure = null;
+		try {
+			task.run();
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			for (final CompletableFuture<Void> file : files.values()) {
+				if (session.isCancelled()) file.cancel(false);
+				else if (failure != null) file.completeExceptionally(failure);
+				else file.complete(null);
+			}
+			if (failure != null) session.completeExceptionally(failure);
+			else session.complete(null);
+			terminated.complete(null);
+		}
+	}
+}
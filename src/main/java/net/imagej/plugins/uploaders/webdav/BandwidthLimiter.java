@@ -0,0 +1,198 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * A token bucket limiting the bandwidth of uploads.
+ * <p>
+ * One limiter is shared by all concurrent PUTs it applies to, so the cap
+ * holds for their sum. The rate can be changed at any time; waiting uploads
+ * pick up the new rate right away. A rate of 0 or less means no limit, in
+ * which case the limiter costs a single volatile read per write.
+ * </p>
+ * <p>
+ * By default, all uploads of a JVM share the limiter configured via the
+ * <code>webdav.bandwidth</code> system property (in bytes per second). A
+ * different limit for a single update site can be set via
+ * <code>webdav.bandwidth.&lt;site name&gt;</code>.
+ * </p>
+ */
+class BandwidthLimiter {
+
+	/** The largest amount of bytes acquired at once. */
+	static final int CHUNK_SIZE = 16 * 1024;
+
+	private static final BandwidthLimiter shared = new BandwidthLimiter(getDefaultRate());
+
+	private volatile long bytesPerSecond;
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+
+	BandwidthLimiter(final long bytesPerSecond) {
+		setRate(bytesPerSecond);
+	}
+
+	/**
+	 * Returns the limiter shared by all uploads, re-reading the
+	 * <code>webdav.bandwidth</code> system property.
+	 */
+	static BandwidthLimiter getShared() {
+		final long rate = getDefaultRate();
+		if (rate != shared.getRate()) shared.setRate(rate);
+		return shared;
+	}
+
+	private static long getDefaultRate() {
+		return Long.getLong("webdav.bandwidth", 0);
+	}
+
+	long getRate() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Changes the maximal number of bytes per second; 0 or less means no limit.
+	 */
+	synchronized void setRate(final long bytesPerSecond) {
+		refill();
+		this.bytesPerSecond = bytesPerSecond;
+		tokens = Math.min(tokens, getCapacity());
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the given number of bytes (at most {@link #CHUNK_SIZE}) may
+	 * be sent.
+	 * 
+	 * @param cancellation the session to stop waiting for when it is
+	 *          cancelled, or null
+	 */
+	void acquire(final int bytes, final Cancellation cancellation) throws InterruptedIOException {
+		if (bytesPerSecond <= 0) return;
+		synchronized (this) {
+			if (cancellation != null) cancellation.addMonitor(this);
+			try {
+				for (;;) {
+					// checked first, so that a woken thread does not write another chunk
+					if (cancellation != null && cancellation.isCancelled()) {
+						throw new InterruptedIOException("Upload cancelled while throttling");
+					}
+					final long rate = bytesPerSecond;
+					if (rate <= 0) return;
+					refill();
+					if (tokens >= bytes) {
+						tokens -= bytes;
+						return;
+					}
+					final long millis = (long) Math.ceil((bytes - tokens) * 1000 / rate);
+					try {
+						wait(Math.max(1, millis));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while throttling upload");
+					}
+				}
+			} finally {
+				if (cancellation != null) cancellation.removeMonitor(this);
+			}
+		}
+	}
+
+	/**
+	 * Wraps the given entity so that writing it is throttled by this limiter.
+	 */
+	HttpEntity wrap(final HttpEntity entity) {
+		return wrap(entity, null);
+	}
+
+	/**
+	 * Wraps the given entity so that writing it is throttled by this limiter,
+	 * until the given session is cancelled.
+	 */
+	HttpEntity wrap(final HttpEntity entity, final Cancellation cancellation) {
+		return new HttpEntityWrapper(entity) {
+			@Override
+			public void writeTo(final OutputStream out) throws IOException {
+				wrappedEntity.writeTo(new ThrottledOutputStream(out, cancellation));
+			}
+		};
+	}
+
+	/** Allows bursts of half a second, but at least one chunk. */
+	private double getCapacity() {
+		return Math.max(CHUNK_SIZE, bytesPerSecond / 2.0);
+	}
+
+	private void refill() {
+		final long now = System.nanoTime();
+		if (bytesPerSecond > 0) {
+			tokens = Math.min(getCapacity(), tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+		}
+		lastRefill = now;
+	}
+
+	private class ThrottledOutputStream extends FilterOutputStream {
+
+		private final Cancellation cancellation;
+
+		private ThrottledOutputStream(final OutputStream out, final Cancellation cancellation) {
+			super(out);
+			this.cancellation = cancellation;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			acquire(1, cancellation);
+			out.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				final int count = Math.min(len, CHUNK_SIZE);
+				acquire(count, cancellation);
+				out.write(b, off, count);
+				off += count;
+				len -= count;
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Lets an upload session be cancelled from another thread.
+ * <p>
+ * Cancelling aborts all requests in flight, so that the threads waiting for
+ * them fail right away, and makes new requests and back-off delays fail,
+ * too. Requests releasing locks are exempt, so that the session can still
+ * clean up after itself.
+ * </p>
+ */
+class Cancellation {
+
+	private final CountDownLatch cancelled = new CountDownLatch(1);
+	private final Set<HttpUriRequest> requests = ConcurrentHashMap.newKeySet();
+	/** The registered monitors, with the number of threads waiting on each. */
+	private final Map<Object, Integer> monitors = new ConcurrentHashMap<>();
+
+	/**
+	 * Cancels the session, aborting the requests in flight and waking up the
+	 * threads waiting on a registered monitor.
+	 */
+	void cancel() {
+		cancelled.countDown();
+		for (final HttpUriRequest request : requests) {
+			request.abort();
+		}
+		for (final Object monitor : monitors.keySet()) {
+			synchronized (monitor) {
+				monitor.notifyAll();
+			}
+		}
+	}
+
+	boolean isCancelled() {
+		return cancelled.getCount() == 0;
+	}
+
+	/**
+	 * Registers a request that is about to be sent, so that it can be
+	 * aborted.
+	 * 
+	 * @throws InterruptedIOException if the session is cancelled already
+	 */
+	void register(final HttpUriRequest request) throws InterruptedIOException {
+		requests.add(request);
+		// a cancellation after this check aborts the request
+		if (isCancelled()) {
+			requests.remove(request);
+			throw cancelled(request);
+		}
+	}
+
+	void unregister(final HttpUriRequest request) {
+		requests.remove(request);
+	}
+
+	/**
+	 * Registers a monitor that a thread is about to wait on, so that
+	 * cancelling wakes it up. The thread must check {@link #isCancelled()}
+	 * after registering, and whenever it wakes up. Several threads may
+	 * register the same monitor; it stays registered until all of them
+	 * removed it again.
+	 */
+	void addMonitor(final Object monitor) {
+		monitors.merge(monitor, 1, Integer::sum);
+	}
+
+	void removeMonitor(final Object monitor) {
+		monitors.computeIfPresent(monitor, (key, count) -> count == 1 ? null : count - 1);
+	}
+
+	/**
+	 * Waits for the given time, unless the session is cancelled.
+	 * 
+	 * @throws InterruptedIOException if the session is cancelled, or the
+	 *           thread interrupted, while waiting
+	 */
+	void sleep(final HttpUriRequest request, final long millis) throws InterruptedIOException {
+		try {
+			if (!cancelled.await(millis, TimeUnit.MILLISECONDS)) return;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry " + request.getMethod() + " " + request.getURI());
+		}
+		throw cancelled(request);
+	}
+
+	private static InterruptedIOException cancelled(final HttpUriRequest request) {
+		return new InterruptedIOException("Upload cancelled; not sending " + request.getMethod() + " " + request.getURI());
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Compresses an entity on the fly, sending it with a
+ * <code>Content-Encoding</code> of <code>gzip</code> or <code>deflate</code>.
+ * <p>
+ * Only use this if the server is known to decode the request body; most
+ * WebDAV servers store it as-is otherwise.
+ * </p>
+ * <p>
+ * Which files are compressed is configured via the following system
+ * properties:
+ * <dl>
+ * <dt>webdav.compressEncoding</dt><dd>Either <code>gzip</code> (default) or <code>deflate</code></dd>
+ * <dt>webdav.compressExtensions</dt><dd>A comma-separated list of file extensions (default: scripts, text and XML files, and lookup tables)</dd>
+ * <dt>webdav.compressMinSize</dt><dd>Files smaller than this many bytes are sent as-is (default: 1024)</dd>
+ * </dl>
+ * </p>
+ */
+class CompressingEntity extends HttpEntityWrapper {
+
+	private static final String DEFAULT_EXTENSIONS =
+		"bsh,clj,csv,groovy,html,ijm,java,js,json,lut,md,py,r,rb,svg,txt,xml";
+
+	static final String ENCODING = "deflate".equals(System.getProperty("webdav.compressEncoding")) ? "deflate" : "gzip";
+
+	private static final Set<String> extensions = new HashSet<>(Arrays.asList(
+		System.getProperty("webdav.compressExtensions", DEFAULT_EXTENSIONS).toLowerCase(Locale.ROOT).split(" *, *")));
+
+	private static final long minSize = Long.getLong("webdav.compressMinSize", 1024);
+
+	CompressingEntity(final HttpEntity entity) {
+		super(entity);
+	}
+
+	/**
+	 * Determines whether a file of the given name and size is worth
+	 * compressing.
+	 */
+	static boolean isCompressible(final String filename, final long size) {
+		if (size < minSize) return false;
+		final int dot = filename.lastIndexOf('.');
+		if (dot < 0 || dot < filename.lastIndexOf('/')) return false;
+		return extensions.contains(filename.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader("Content-Encoding", ENCODING);
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void writeTo(final OutputStream out) throws IOException {
+		// closing the compressing stream releases the native zlib resources
+		final OutputStream notClosing = new FilterOutputStream(out) {
+			@Override
+			public void write(final byte[] b, final int off, final int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		};
+		try (DeflaterOutputStream compressed = "deflate".equals(ENCODING) ?
+				new DeflaterOutputStream(notClosing, true) : new GZIPOutputStream(notClosing, 65536, true)) {
+			wrappedEntity.writeTo(compressed);
+		}
+	}
+}
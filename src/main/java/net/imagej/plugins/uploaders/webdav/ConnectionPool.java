@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * The HTTP connections shared by all {@link WebDAVUploader} instances.
+ * <p>
+ * There is a single pooling client per JVM; connections are kept alive and
+ * reused across uploader instances and update sites. The client itself does
+ * not know about any credentials: each uploader passes its own
+ * {@link org.apache.http.client.CredentialsProvider} with every request, so
+ * several update sites can be uploaded to concurrently. Neither does it retry
+ * failed requests by itself; that is up to the uploader's {@link RetryPolicy}.
+ * </p>
+ * <p>
+ * The pool can be configured via the following system properties:
+ * <dl>
+ * <dt>webdav.maxConnections</dt><dd>The maximal number of connections in total (default: 50)</dd>
+ * <dt>webdav.maxConnectionsPerRoute</dt><dd>The maximal number of connections per host (default: 10, or <code>webdav.threads</code> if larger)</dd>
+ * <dt>webdav.idleTimeout</dt><dd>The number of seconds after which idle connections are closed (default: 60)</dd>
+ * </dl>
+ * </p>
+ */
+final class ConnectionPool {
+
+	private static final int TIMEOUT = 360 * 1000;
+
+	private static final RequestConfig requestConfig = RequestConfig.custom()
+			.setConnectTimeout(TIMEOUT)
+			.setConnectionRequestTimeout(TIMEOUT)
+			.setSocketTimeout(TIMEOUT)
+			.build();
+
+	private static PoolingHttpClientConnectionManager manager;
+	private static HttpClient client;
+
+	private ConnectionPool() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Returns the shared client, creating it upon first use.
+	 */
+	static synchronized HttpClient getClient() {
+		if (client == null) {
+			manager = new PoolingHttpClientConnectionManager();
+			manager.setMaxTotal(getProperty("webdav.maxConnections", 50));
+			manager.setDefaultMaxPerRoute(getProperty("webdav.maxConnectionsPerRoute",
+				Math.max(10, getProperty("webdav.threads", 1))));
+			// re-check connections that were idle, the server might have closed them
+			manager.setValidateAfterInactivity(2000);
+
+			// the client owns the manager, so that it closes idle connections in the background
+			client = HttpClientBuilder.create()
+					.setConnectionManager(manager)
+					.setDefaultRequestConfig(requestConfig)
+					// the uploader's RetryPolicy decides which requests are retried, and when
+					.disableAutomaticRetries()
+					.setRequestExecutor(UploadMetrics.getInstance().createRequestExecutor())
+					.evictExpiredConnections()
+					.evictIdleConnections(getProperty("webdav.idleTimeout", 60), TimeUnit.SECONDS)
+					.build();
+		}
+		return client;
+	}
+
+	/**
+	 * Returns the request configuration (timeouts) of the shared client.
+	 * <p>
+	 * A request configuration set on a per-request context replaces the
+	 * client's default, so derive from this one via
+	 * {@link RequestConfig#copy(RequestConfig)}.
+	 * </p>
+	 */
+	static RequestConfig getRequestConfig() {
+		return requestConfig;
+	}
+
+	/**
+	 * Makes sure that the pool allows at least the given number of concurrent
+	 * connections per host.
+	 */
+	static synchronized void ensureMaxConnectionsPerRoute(final int perRoute) {
+		getClient();
+		if (manager.getDefaultMaxPerRoute() < perRoute) {
+			manager.setDefaultMaxPerRoute(perRoute);
+		}
+		if (manager.getMaxTotal() < perRoute) {
+			manager.setMaxTotal(perRoute);
+		}
+	}
+
+	static int getProperty(final String key, final int defaultValue) {
+		final Integer value = Integer.getInteger(key);
+		return value == null || value < 1 ? defaultValue : value;
+	}
+}
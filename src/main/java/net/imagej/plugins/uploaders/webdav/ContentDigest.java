@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * The MD5 and SHA-256 digests of a file, computed while it is sent.
+ * <p>
+ * The bytes are passed in with their position in the file. Bytes that were
+ * digested already (e.g. when a request is retried) are skipped, so the
+ * digests describe the file's content no matter how often, or in how many
+ * segments, it was sent. If some bytes were never passed in (e.g. when a
+ * resumed upload skipped a segment the server already had), the digests are
+ * incomplete and must not be used.
+ * </p>
+ */
+class ContentDigest {
+
+	private final MessageDigest md5 = Digests.getInstance("MD5");
+	private final MessageDigest sha256 = Digests.getInstance("SHA-256");
+	private long position;
+	private byte[] md5Bytes, sha256Bytes;
+
+	/**
+	 * Digests the given bytes, which start at the given position in the file.
+	 */
+	synchronized void update(final long offset, final byte[] buffer, final int start, final int count) {
+		if (md5Bytes != null || offset > position || offset + count <= position) return;
+		final int skip = (int) (position - offset);
+		md5.update(buffer, start + skip, count - skip);
+		sha256.update(buffer, start + skip, count - skip);
+		position = offset + count;
+	}
+
+	/**
+	 * Digests the whole file up front, e.g. to send the digests as request
+	 * headers.
+	 */
+	void digest(final InputStream in) throws IOException {
+		final byte[] buffer = new byte[65536];
+		long offset = 0;
+		for (;;) {
+			final int count = in.read(buffer);
+			if (count < 0) break;
+			update(offset, buffer, 0, count);
+			offset += count;
+		}
+	}
+
+	/**
+	 * @return whether all bytes of a file of the given size were digested
+	 */
+	synchronized boolean isComplete(final long size) {
+		return position == size;
+	}
+
+	/**
+	 * @return the number of bytes digested
+	 */
+	synchronized long getLength() {
+		return position;
+	}
+
+	String getMD5Hex() {
+		return Digests.toHex(getMD5());
+	}
+
+	String getSHA256Hex() {
+		finish();
+		return Digests.toHex(sha256Bytes);
+	}
+
+	/**
+	 * @return the value of a <code>Content-MD5</code> header (RFC 1864)
+	 */
+	String getContentMD5() {
+		return Base64.getEncoder().encodeToString(getMD5());
+	}
+
+	private byte[] getMD5() {
+		finish();
+		return md5Bytes;
+	}
+
+	private synchronized void finish() {
+		if (md5Bytes == null) {
+			md5Bytes = md5.digest();
+			sha256Bytes = sha256.digest();
+		}
+	}
+}
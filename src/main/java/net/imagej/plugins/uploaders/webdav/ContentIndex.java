@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds files on the server by their content.
+ * <p>
+ * The index knows the content of a remote file if the server reports its
+ * MD5 or SHA-256 digest, be it as ownCloud-style checksum (see
+ * {@link RemoteResource#CHECKSUMS}) or as ETag, as many servers do. Files
+ * are grouped by size, so that local files only need to be hashed if a
+ * remote file of the same size exists.
+ * </p>
+ */
+class ContentIndex {
+
+	private final Map<Long, List<Entry>> bySize = new HashMap<>();
+
+	private static class Entry {
+		private final String path;
+		private final RemoteResource resource;
+
+		private Entry(final String path, final RemoteResource resource) {
+			this.path = path;
+			this.resource = resource;
+		}
+	}
+
+	/**
+	 * Adds the given remote files, skipping those whose content is not known.
+	 */
+	ContentIndex(final Map<String, RemoteResource> files) {
+		for (final Map.Entry<String, RemoteResource> entry : files.entrySet()) {
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Adds a remote file, unless its content is not known.
+	 */
+	synchronized void add(final String path, final RemoteResource resource) {
+		if (resource.getSize() < 0 || !hasDigest(resource)) return;
+		bySize.computeIfAbsent(resource.getSize(), size -> new ArrayList<>()).add(new Entry(path, resource));
+	}
+
+	/**
+	 * Adds a file that was just uploaded.
+	 */
+	void add(final String path, final ContentDigest digest) {
+		add(path, new RemoteResource(digest.getLength(), null,
+			"MD5:" + digest.getMD5Hex() + " SHA256:" + digest.getSHA256Hex()));
+	}
+
+	/** Whether the server might have a file with the given size. */
+	synchronized boolean hasCandidates(final long size) {
+		return bySize.containsKey(size);
+	}
+
+	/**
+	 * Looks for a remote file with the given content, preferring the given
+	 * path if it has the content already.
+	 * 
+	 * @return the path of the remote file, or null if there is none
+	 */
+	synchronized String find(final String path, final long size, final String md5, final String sha256) {
+		final List<Entry> entries = bySize.get(size);
+		if (entries == null) return null;
+		String result = null;
+		for (final Entry entry : entries) {
+			if (!matches(entry.resource, md5, sha256)) continue;
+			if (entry.path.equals(path)) return path;
+			if (result == null) result = entry.path;
+		}
+		return result;
+	}
+
+	private static boolean hasDigest(final RemoteResource resource) {
+		if (resource.getChecksum("MD5") != null || resource.getChecksum("SHA256") != null) return true;
+		final String etag = resource.getETag();
+		return etag != null && (etag.length() == 32 || etag.length() == 64) && etag.matches("[0-9a-fA-F]+");
+	}
+
+	private static boolean matches(final RemoteResource resource, final String md5, final String sha256) {
+		final String remoteMD5 = resource.getChecksum("MD5");
+		if (remoteMD5 != null) return remoteMD5.equals(md5);
+		final String remoteSHA256 = resource.getChecksum("SHA256");
+		if (remoteSHA256 != null) return remoteSHA256.equals(sha256);
+		final String etag = resource.getETag() == null ? null : resource.getETag().toLowerCase(Locale.ROOT);
+		return md5.equals(etag) || sha256.equals(etag);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps WebDAV locks alive by refreshing them in the background.
+ * <p>
+ * Every lock is refreshed after a third of the timeout the server granted,
+ * so that a lock outlives uploads taking longer than its timeout. The first
+ * failed refresh is remembered and reported by {@link #check()}; from then
+ * on, the lock is no longer refreshed.
+ * </p>
+ */
+class LockKeeper implements AutoCloseable {
+
+	/** The timeout that the servers use for locks that never expire. */
+	static final long INFINITE_TIMEOUT = Integer.MAX_VALUE;
+
+	/** Refreshes a lock, returning the newly granted timeout in milliseconds. */
+	interface Refresher {
+		long refresh(String path, String token) throws IOException;
+	}
+
+	private final Refresher refresher;
+	private final long minInterval;
+	private ScheduledThreadPoolExecutor scheduler;
+	private boolean closed;
+	private volatile IOException failure;
+
+	LockKeeper(final Refresher refresher) {
+		this(refresher, 1000);
+	}
+
+	LockKeeper(final Refresher refresher, final long minInterval) {
+		this.refresher = refresher;
+		this.minInterval = minInterval;
+	}
+
+	/**
+	 * Starts refreshing the given lock.
+	 * 
+	 * @param timeout the timeout granted by the server, in milliseconds
+	 */
+	synchronized void keep(final String path, final String token, final long timeout) {
+		if (closed || timeout <= 0 || timeout >= INFINITE_TIMEOUT) return;
+		if (scheduler == null) {
+			scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+				final Thread thread = new Thread(runnable, "WebDAV-lock-keeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		}
+		scheduler.schedule(() -> refresh(path, token), getInterval(timeout), TimeUnit.MILLISECONDS);
+	}
+
+	long getInterval(final long timeout) {
+		return Math.max(minInterval, timeout / 3);
+	}
+
+	private void refresh(final String path, final String token) {
+		if (failure != null) return;
+		try {
+			keep(path, token, refresher.refresh(path, token));
+		} catch (IOException e) {
+			failure = e;
+		} catch (RuntimeException e) {
+			failure = new IOException("Could not refresh the lock for " + path, e);
+		}
+	}
+
+	/**
+	 * Reports the first failed refresh, if any.
+	 * 
+	 * @throws IOException if a lock could not be refreshed and may be lost
+	 */
+	void check() throws IOException {
+		final IOException e = failure;
+		if (e != null) throw new IOException("Lost a lock: " + e.getMessage(), e);
+	}
+
+	/**
+	 * Stops refreshing the locks, waiting for a refresh in flight, so that
+	 * the locks can be moved or released safely.
+	 */
+	@Override
+	public void close() {
+		final ScheduledThreadPoolExecutor scheduler;
+		synchronized (this) {
+			closed = true;
+			scheduler = this.scheduler;
+		}
+		if (scheduler == null) return;
+		// do not interrupt a refresh in flight: the connection would be lost
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.updater.Uploadable;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.scijava.log.LogService;
+
+/**
+ * Uploads to an update site and its mirrors at the same time.
+ * <p>
+ * Every site has a session of its own: its locks are obtained, moved and
+ * released independently of, but concurrently with, those of the other
+ * sites, and it has its own journal. Every file is read only once for all
+ * sites: files of up to {@link #SMALL_FILE_SIZE} bytes are read into memory,
+ * larger ones are passed to the sites through a {@link Tee}, so that the
+ * slowest site determines the pace. If a site fails to receive a file that
+ * way, the file is uploaded to that site on its own, with the usual retries.
+ * </p>
+ * <p>
+ * The first site is the update site proper: if it fails, the whole upload
+ * fails. A mirror that fails is dropped from the rest of the upload, its
+ * locks are released without moving the lock files, and its failure is
+ * reported by {@link #getFailures()}.
+ * </p>
+ */
+class MirroredUpload {
+
+	/** Files up to this size are read into memory. */
+	static final int SMALL_FILE_SIZE = 1 << 20;
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private static class Site {
+		private final WebDAVUploader uploader;
+		private final LockKeeper lockKeeper;
+		/** The lock tokens; null until the session began. */
+		private volatile Map<String, String> tokens;
+		private volatile IOException failure;
+
+		private Site(final WebDAVUploader uploader) {
+			this.uploader = uploader;
+			lockKeeper = new LockKeeper(uploader::refreshLock);
+		}
+
+		private String getToken(final Uploadable source) {
+			return tokens.get(source.getFilename());
+		}
+	}
+
+	private interface SiteTask {
+		void run(Site site) throws IOException;
+	}
+
+	private final List<Site> sites = new ArrayList<>();
+	private final Site primary;
+	private final int bufferSize;
+	private final LogService log;
+	private final Map<String, IOException> failures = Collections.synchronizedMap(new LinkedHashMap<>());
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		final Thread thread = new Thread(runnable, "WebDAV-mirror-" + counter.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * @param uploaders the update site, followed by its mirrors
+	 * @param bufferSize the number of bytes to buffer for each site, at most
+	 */
+	MirroredUpload(final List<WebDAVUploader> uploaders, final int bufferSize) {
+		for (final WebDAVUploader uploader : uploaders) {
+			sites.add(new Site(uploader));
+		}
+		primary = sites.get(0);
+		this.bufferSize = bufferSize;
+		log = primary.uploader.getLog();
+	}
+
+	/**
+	 * Returns the failures of the mirrors, keyed by base URL.
+	 */
+	Map<String, IOException> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Checks every site (see {@link WebDAVUploader#validate()}) and obtains
+	 * its locks. Mirrors that do not exist or do not accept the credentials
+	 * are dropped before they are locked. If the update site's locks cannot
+	 * be obtained, the mirrors' locks are released again.
+	 */
+	void begin(final List<String> locks) throws IOException {
+		try {
+			forEach(site -> site.tokens = site.uploader.beginSession(locks, site.lockKeeper));
+		} catch (IOException e) {
+			end(e);
+			throw e;
+		}
+	}
+
+	/** Lists what is on the servers already. */
+	void prepare(final List<Uploadable> sources) throws IOException {
+		forEach(site -> site.uploader.prepareSession(sources, site.tokens));
+	}
+
+	/** Fails if the update site lost a lock; drops mirrors that lost one. */
+	void check() throws IOException {
+		for (final Site site : getActive()) try {
+			site.lockKeeper.check();
+		} catch (IOException e) {
+			fail(site, e);
+		}
+	}
+
+	/** Makes the target directory of the given file on all sites. */
+	void prepare(final Uploadable source) throws IOException {
+		for (final Site site : getActive()) try {
+			site.uploader.makeParentDirectory(source.getFilename());
+		} catch (IOException e) {
+			fail(site, e);
+		}
+	}
+
+	/**
+	 * Uploads the given file to all sites that do not have it yet. Deciding
+	 * that reads the file at most once for all sites.
+	 * 
+	 * @param progress the callback to report the progress to, or null
+	 * @return false if no site needed the file
+	 */
+	boolean upload(final Uploadable source, final ProgressHttpEntityWrapper.ProgressCallback progress) throws IOException {
+		final List<Site> targets = new ArrayList<>();
+		final SourceDigest digest = new SourceDigest(source);
+		for (final Site site : getActive()) try {
+			if (!site.uploader.skipUpload(source, site.getToken(source), digest)) targets.add(site);
+		} catch (IOException e) {
+			fail(site, e);
+		}
+		if (targets.isEmpty()) return false;
+
+		final Map<Site, IOException> failed = targets.size() == 1 ?
+			Collections.emptyMap() : send(source, targets, progress);
+		for (final Site site : targets) {
+			final String token = site.getToken(source);
+			if (targets.size() == 1 || failed.containsKey(site)) try {
+				if (failed.containsKey(site)) {
+					log.warn("Uploading " + source.getFilename() + " to " + site.uploader.getBaseUrl() +
+						" on its own after " + failed.get(site));
+				}
+				site.uploader.upload(source, token, targets.size() == 1 ? progress : null);
+			} catch (IOException e) {
+				if (failed.containsKey(site)) e.addSuppressed(failed.get(site));
+				fail(site, e);
+				continue;
+			}
+			site.uploader.uploaded(source, token);
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the given file to the given sites at the same time, reading it
+	 * only once.
+	 * 
+	 * @return the failures, by site
+	 */
+	private Map<Site, IOException> send(final Uploadable source, final List<Site> targets,
+			final ProgressHttpEntityWrapper.ProgressCallback progress) {
+		final long size = source.getFilesize();
+		final ContentDigest digest = new ContentDigest();
+		final List<HttpEntity> entities = new ArrayList<>();
+		Tee tee = null;
+		if (size <= SMALL_FILE_SIZE) {
+			final byte[] content = new byte[(int) size];
+			try (DataInputStream in = new DataInputStream(source.getInputStream())) {
+				in.readFully(content);
+			} catch (IOException e) {
+				final Map<Site, IOException> failed = new HashMap<>();
+				for (final Site site : targets) failed.put(site, e);
+				return failed;
+			}
+			digest.update(0, content, 0, content.length);
+			for (int i = 0; i < targets.size(); i++) {
+				entities.add(new ByteArrayEntity(content));
+			}
+		} else {
+			tee = new Tee(targets.size(), bufferSize);
+			for (int i = 0; i < targets.size(); i++) {
+				entities.add(new InputStreamEntity(tee.getInput(i), size));
+			}
+		}
+		if (progress != null) {
+			entities.set(0, new ProgressHttpEntityWrapper(entities.get(0), progress, size));
+		}
+
+		final List<Future<Void>> futures = new ArrayList<>();
+		for (int i = 0; i < targets.size(); i++) {
+			final Site site = targets.get(i);
+			final HttpEntity entity = entities.get(i);
+			final InputStream in = tee == null ? null : tee.getInput(i);
+			futures.add(executor.submit(() -> {
+				try {
+					site.uploader.uploadShared(source, site.getToken(source), entity, digest);
+				} finally {
+					// let the tee go on without this site
+					if (in != null) in.close();
+				}
+				return null;
+			}));
+		}
+		if (tee != null) {
+			try (InputStream in = source.getInputStream()) {
+				tee.pump(in, digest);
+			} catch (IOException e) {
+				// the sites fail, too, and try again on their own
+			}
+		}
+
+		final Map<Site, IOException> failed = new HashMap<>();
+		for (int i = 0; i < targets.size(); i++) {
+			final IOException e = await(futures.get(i));
+			if (e != null) failed.put(targets.get(i), e);
+		}
+		return failed;
+	}
+
+	/**
+	 * Verifies the uploads and moves the lock files on all sites.
+	 */
+	void finish(final List<String> locks) throws IOException {
+		forEach(site -> site.uploader.finishSession(locks, site.tokens, site.lockKeeper));
+	}
+
+	/**
+	 * Ends the sessions on all sites, releasing the remaining locks, and
+	 * reports the outcome for every mirror.
+	 * 
+	 * @param failure the failure of the update site, or null if it succeeded
+	 * @throws IOException if the update site succeeded, but a lock could not
+	 *           be released
+	 */
+	void end(final Throwable failure) throws IOException {
+		try {
+			final List<Future<Void>> futures = new ArrayList<>();
+			final List<Site> begun = new ArrayList<>();
+			for (final Site site : sites) {
+				if (site.tokens == null) continue;
+				if (site != primary && site.failure == null && failure != null) {
+					site.failure = failure instanceof IOException ? (IOException) failure : new IOException(failure);
+					failures.put(site.uploader.getBaseUrl(), site.failure);
+				}
+				final Throwable siteFailure = site == primary ? failure : site.failure;
+				begun.add(site);
+				futures.add(executor.submit(() -> {
+					site.uploader.endSession(site.tokens, site.lockKeeper, siteFailure);
+					return null;
+				}));
+			}
+			IOException primaryFailure = null;
+			for (int i = 0; i < begun.size(); i++) {
+				final IOException e = await(futures.get(i));
+				if (e == null) continue;
+				if (begun.get(i) == primary) primaryFailure = e;
+				else fail(begun.get(i), e);
+			}
+			if (primaryFailure != null) fail(primary, primaryFailure);
+		} finally {
+			executor.shutdown();
+			for (final Site site : sites) {
+				if (site == primary) continue;
+				if (site.failure == null) {
+					log.info("Uploaded to the mirror " + site.uploader.getBaseUrl());
+				} else {
+					log.error("Could not upload to the mirror " + site.uploader.getBaseUrl() + ": " + site.failure);
+				}
+			}
+		}
+	}
+
+	private List<Site> getActive() {
+		final List<Site> result = new ArrayList<>();
+		for (final Site site : sites) {
+			if (site.failure == null) result.add(site);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the given task for all sites that did not fail yet, concurrently.
+	 */
+	private void forEach(final SiteTask task) throws IOException {
+		final List<Site> active = getActive();
+		final List<Future<Void>> futures = new ArrayList<>();
+		for (final Site site : active) {
+			futures.add(executor.submit(() -> {
+				task.run(site);
+				return null;
+			}));
+		}
+		IOException primaryFailure = null;
+		for (int i = 0; i < active.size(); i++) {
+			final IOException e = await(futures.get(i));
+			if (e == null) continue;
+			if (active.get(i) == primary) primaryFailure = e;
+			else fail(active.get(i), e);
+		}
+		if (primaryFailure != null) fail(primary, primaryFailure);
+	}
+
+	/**
+	 * Records the failure of a site. The failure of the update site is
+	 * thrown, those of mirrors are not.
+	 */
+	private void fail(final Site site, final IOException e) throws IOException {
+		if (site.failure == null) site.failure = e;
+		if (site == primary) throw e;
+		if (failures.putIfAbsent(site.uploader.getBaseUrl(), e) == null) {
+			log.error("Dropping the mirror " + site.uploader.getBaseUrl() + " from this upload: " + e);
+		}
+	}
+
+	/**
+	 * Waits for the given task, even if interrupted: the sessions must not be
+	 * ended while requests are still in flight.
+	 * 
+	 * @return the failure of the task, or null if it succeeded
+	 */
+	private static IOException await(final Future<Void> future) {
+		boolean interrupted = false;
+		try {
+			for (;;) try {
+				future.get();
+				return null;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				final Throwable cause = e.getCause();
+				if (cause instanceof IOException) return (IOException) cause;
+				if (cause instanceof Error) throw (Error) cause;
+				return new IOException(cause);
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+}
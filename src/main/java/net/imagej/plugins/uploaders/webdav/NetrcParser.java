@@ -32,19 +32,38 @@
 package net.imagej.plugins.uploaders.webdav;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A helper class to obtain credentials stored in $HOME/.netrc
+ * <p>
+ * The file is parsed only once into an index that is shared by all parser
+ * instances; it is parsed again only when the file's modification time or
+ * size changes.
+ * </p>
  * 
  * @author Johannes Schindelin
  */
 public class NetrcParser {
 
+	/**
+	 * The parsed .netrc files, keyed by their URL's external form (not by the
+	 * {@link URL} itself, whose <code>equals()</code> resolves host names).
+	 */
+	private static final Map<String, Index> indexes = new ConcurrentHashMap<>();
+
 	final private URL url;
 
 	public NetrcParser() {
@@ -91,6 +110,11 @@ public class NetrcParser {
 
 	/**
 	 * Obtains the credentials from $HOME/.netrc for the given hostname (and optionally username).
+	 * <p>
+	 * Without a username, the first login of the first matching
+	 * <code>machine</code> entry that has a password is used. Hosts without any
+	 * <code>machine</code> entry fall back to the <code>default</code> entry.
+	 * </p>
 	 * 
 	 * @param credentials specifies the hostname (and optionally the username)
 	 * @return whether the host was found and the missing parts of the credentials filled
@@ -98,78 +122,189 @@ public class NetrcParser {
 	 */
 	public boolean getCredentials(final Credentials credentials) throws IOException {
 		if (url == null) return false;
-		String keyword = null;
-		boolean isOurHost = false;
-		final boolean needsUsername = credentials.getUsername() == null;
-		final Tokenizer tokenizer = new Tokenizer(url);
-		for (;;) {
-			if (credentials.getPassword() != null && credentials.getUsername() != null) {
-				tokenizer.close();
+		final Map<String, String> logins = getIndex(url).getLogins(credentials.getHostname());
+		if (logins == null) return false;
+		if (credentials.getUsername() == null) {
+			for (final Map.Entry<String, String> entry : logins.entrySet()) {
+				if (entry.getKey() == null) continue;
+				credentials.username = entry.getKey();
+				credentials.password = entry.getValue();
 				return true;
 			}
-			final String token = tokenizer.nextToken();
-			if (token == null) break;
-			if (keyword == null) {
-				keyword = token;
-			} else {
+			return false;
+		}
+		String password = logins.get(credentials.getUsername());
+		// an entry without a login applies to any user
+		if (password == null) password = logins.get(null);
+		if (password == null) return false;
+		credentials.password = password;
+		return true;
+	}
+
+	private static Index getIndex(final URL url) throws IOException {
+		final String key = url.toExternalForm();
+		final long[] stamp = getStamp(url);
+		Index index = indexes.get(key);
+		if (index == null || index.lastModified != stamp[0] || index.length != stamp[1]) {
+			index = parse(url, stamp[0], stamp[1]);
+			indexes.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the modification time and the size of the given .netrc file.
+	 */
+	private static long[] getStamp(final URL url) throws IOException {
+		if ("file".equals(url.getProtocol())) try {
+			final File file = new File(url.toURI());
+			return new long[] { file.lastModified(), file.length() };
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			// fall through to the generic way
+		}
+		final URLConnection connection = url.openConnection();
+		return new long[] { connection.getLastModified(), connection.getContentLengthLong() };
+	}
+
+	private static Index parse(final URL url, final long lastModified, final long length) throws IOException {
+		final Map<String, Map<String, String>> machines = new HashMap<>();
+		Map<String, String> defaults = null;
+		try (final Tokenizer tokenizer = new Tokenizer(url)) {
+			Map<String, String> logins = null;
+			String login = null, password = null;
+			for (;;) {
+				final String keyword = tokenizer.nextToken();
+				if (keyword == null) break;
+				if ("default".equals(keyword)) {
+					// the only keyword without a value
+					if (defaults == null) defaults = new LinkedHashMap<>();
+					logins = defaults;
+					login = password = null;
+					continue;
+				}
+				final String value = tokenizer.nextToken();
+				if (value == null) break;
 				if ("machine".equals(keyword)) {
-					isOurHost = token.equals(credentials.getHostname());
+					logins = machines.get(value);
+					if (logins == null) {
+						logins = new LinkedHashMap<>();
+						machines.put(value, logins);
+					}
+					login = password = null;
+				} else if ("macdef".equals(keyword)) {
+					tokenizer.skipMacro();
 				} else if ("login".equals(keyword)) {
-					if (isOurHost) {
-						if (needsUsername) {
-							credentials.username = token;
-						} else {
-							isOurHost = token.equals(credentials.getUsername());
-						}
+					// a second login starts a new login/password pair
+					if (login != null) password = null;
+					login = value;
+					if (logins != null && password != null && !logins.containsKey(login)) {
+						logins.put(login, password);
 					}
 				} else if ("password".equals(keyword)) {
-					if (isOurHost) {
-						credentials.password = token;
+					password = value;
+					if (logins != null && !logins.containsKey(login)) {
+						logins.put(login, password);
 					}
 				}
-				// skip unknown keyword
-				keyword = null;
+				// skip unknown keyword (e.g. account) with its value
 			}
 		}
-		return false;
+		for (final Map.Entry<String, Map<String, String>> entry : machines.entrySet()) {
+			entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+		}
+		return new Index(lastModified, length, Collections.unmodifiableMap(machines),
+			defaults == null ? null : Collections.unmodifiableMap(defaults));
 	}
 
-	private static class Tokenizer {
+	/**
+	 * The immutable contents of a .netrc file: the passwords by login by host.
+	 */
+	private static class Index {
+		private final long lastModified, length;
+		private final Map<String, Map<String, String>> machines;
+		private final Map<String, String> defaults;
+
+		private Index(final long lastModified, final long length,
+			final Map<String, Map<String, String>> machines, final Map<String, String> defaults)
+		{
+			this.lastModified = lastModified;
+			this.length = length;
+			this.machines = machines;
+			this.defaults = defaults;
+		}
+
+		private Map<String, String> getLogins(final String hostname) {
+			final Map<String, String> logins = machines.get(hostname);
+			return logins != null ? logins : defaults;
+		}
+	}
+
+	private static class Tokenizer implements Closeable {
 		final private BufferedReader reader;
-		private String[] tokens;
+		private String line = "";
 		private int current;
 
 		public Tokenizer(final URL url) throws IOException {
 			reader = new BufferedReader(new InputStreamReader(url.openStream()));
-			nextLine();
 		}
 
 		public String nextToken() throws IOException {
 			for (;;) {
-				if (current < 0) return null;
-				while (current >= tokens.length || "#".equals(tokens[current])) {
+				final int length = line.length();
+				while (current < length && isWhitespace(line.charAt(current))) current++;
+				if (current >= length || isComment()) {
 					if (!nextLine()) return null;
+					continue;
 				}
-				final String token = tokens[current++];
-				if (!"".equals(token)) return token;
+				final int start = current;
+				while (current < length && !isWhitespace(line.charAt(current))) current++;
+				return line.substring(start, current);
 			}
 		}
 
-		public boolean nextLine() throws IOException {
-			final String line = reader.readLine();
-			if (line == null) {
-				close();
+		/**
+		 * A <code>#</code> comments out the rest of the line if it starts the
+		 * line or stands alone, so that passwords may contain it.
+		 */
+		private boolean isComment() {
+			if (line.charAt(current) != '#') return false;
+			if (current + 1 == line.length() || isWhitespace(line.charAt(current + 1))) return true;
+			for (int i = 0; i < current; i++) {
+				if (!isWhitespace(line.charAt(i))) return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Skips the body of a <code>macdef</code>: the lines following the
+		 * current one, up to and including the next empty line.
+		 */
+		public void skipMacro() throws IOException {
+			while (nextLine()) {
+				if (line.trim().isEmpty()) break;
+			}
+			current = line.length();
+		}
+
+		private boolean nextLine() throws IOException {
+			final String next = reader.readLine();
+			if (next == null) {
+				line = "";
+				current = 0;
 				return false;
 			}
-			tokens = line.split("[ \t\n]+");
+			line = next;
 			current = 0;
 			return true;
 		}
 
+		private static boolean isWhitespace(final char c) {
+			return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+		}
+
+		@Override
 		public void close() throws IOException {
 			reader.close();
-			tokens = null;
-			current = -1;
 		}
 	}
 
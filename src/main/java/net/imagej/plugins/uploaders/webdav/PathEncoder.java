@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Percent-encodes relative paths for use in WebDAV request URLs.
+ * <p>
+ * Every path segment is encoded as per RFC 3986: the unreserved characters
+ * (<code>A-Z a-z 0-9 - . _ ~</code>) are kept, the <code>/</code> separators
+ * are kept, and everything else is encoded as UTF-8 octets. Paths that need
+ * no encoding at all, which are by far the most common ones, are returned
+ * as-is.
+ * </p>
+ */
+final class PathEncoder {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private static final boolean[] UNRESERVED = new boolean[128];
+
+	static {
+		for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+		for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+		for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+		UNRESERVED['-'] = UNRESERVED['.'] = UNRESERVED['_'] = UNRESERVED['~'] = true;
+	}
+
+	private PathEncoder() {
+		// prevent instantiation of utility class
+	}
+
+	static String encode(final String path) {
+		final int length = path.length();
+		int i = 0;
+		while (i < length && isSafe(path.charAt(i))) i++;
+		if (i == length) return path;
+
+		final StringBuilder builder = new StringBuilder(length + 16);
+		builder.append(path, 0, i);
+		while (i < length) {
+			final char c = path.charAt(i++);
+			if (isSafe(c)) {
+				builder.append(c);
+			} else if (c < 0x80) {
+				appendOctet(builder, c);
+			} else if (c < 0x800) {
+				appendOctet(builder, 0xc0 | (c >> 6));
+				appendOctet(builder, 0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i < length &&
+					Character.isLowSurrogate(path.charAt(i))) {
+				final int codePoint = Character.toCodePoint(c, path.charAt(i++));
+				appendOctet(builder, 0xf0 | (codePoint >> 18));
+				appendOctet(builder, 0x80 | ((codePoint >> 12) & 0x3f));
+				appendOctet(builder, 0x80 | ((codePoint >> 6) & 0x3f));
+				appendOctet(builder, 0x80 | (codePoint & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate: encoded as a question mark, like String#getBytes does
+				appendOctet(builder, '?');
+			} else {
+				appendOctet(builder, 0xe0 | (c >> 12));
+				appendOctet(builder, 0x80 | ((c >> 6) & 0x3f));
+				appendOctet(builder, 0x80 | (c & 0x3f));
+			}
+		}
+		return builder.toString();
+	}
+
+	private static boolean isSafe(final char c) {
+		return c == '/' || (c < 0x80 && UNRESERVED[c]);
+	}
+
+	private static void appendOctet(final StringBuilder builder, final int octet) {
+		builder.append('%').append(HEX[(octet >> 4) & 0xf]).append(HEX[octet & 0xf]);
+	}
+
+	/**
+	 * A size-bounded map that evicts the least recently used entry. It is
+	 * not thread-safe by itself.
+	 */
+	static class Cache<V> extends LinkedHashMap<String, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		Cache(final int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, V> eldest) {
+			return size() > capacity;
+		}
+	}
+}
@@ -90,33 +90,63 @@ class ProgressHttpEntityWrapper extends HttpEntityWrapper {
         this.wrappedEntity.writeTo(out instanceof ProgressFilterOutputStream ? out : new ProgressFilterOutputStream(out, this.progressCallback, contentLength));
     }
 
+    /**
+     * Reports progress at most once per byte granularity and interval (and
+     * always upon completion), so that the UI is not updated for every write.
+     */
     static class ProgressFilterOutputStream extends FilterOutputStream {
 
+        /** The minimal number of bytes between two reports. */
+        static final long MIN_GRANULARITY = 64 * 1024;
+
+        /** The minimal time between two reports. */
+        static final long REPORT_INTERVAL_NANOS = 100L * 1000 * 1000;
+
         private final ProgressCallback progressCallback;
         private long transferred;
         private long totalBytes;
+        private final long granularity;
+        private long nextReport;
+        private long lastReportTime;
 
         ProgressFilterOutputStream(final OutputStream out, final ProgressCallback progressCallback, final long totalBytes) {
             super(out);
             this.progressCallback = progressCallback;
             this.transferred = 0;
             this.totalBytes = totalBytes;
+            this.granularity = Math.max(MIN_GRANULARITY, totalBytes / 200);
+            this.nextReport = nextReport(0);
+            this.lastReportTime = System.nanoTime();
         }
 
         @Override
         public void write(final byte[] b, final int off, final int len) throws IOException {
             out.write(b, off, len);
             this.transferred += len;
-            this.progressCallback.progress(getCurrentProgress());
+            if (this.transferred >= this.nextReport) report();
         }
 
         @Override
         public void write(final int b) throws IOException {
             out.write(b);
             this.transferred++;
+            if (this.transferred >= this.nextReport) report();
+        }
+
+        private void report() {
+            final long now = System.nanoTime();
+            final boolean complete = this.totalBytes > 0 && this.transferred >= this.totalBytes;
+            this.nextReport = complete ? Long.MAX_VALUE : nextReport(this.transferred);
+            if (!complete && now - this.lastReportTime < REPORT_INTERVAL_NANOS) return;
+            this.lastReportTime = now;
             this.progressCallback.progress(getCurrentProgress());
         }
 
+        private long nextReport(final long current) {
+            final long next = current + this.granularity;
+            return this.totalBytes > current ? Math.min(next, this.totalBytes) : next;
+        }
+
         private float getCurrentProgress() {
             return ((float) this.transferred / this.totalBytes);
         }
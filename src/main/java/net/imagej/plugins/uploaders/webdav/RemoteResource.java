@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.util.Collection;
+import java.util.Locale;
+
+import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
+import org.apache.jackrabbit.webdav.xml.Namespace;
+import org.w3c.dom.Node;
+
+/**
+ * The metadata of a file on the WebDAV server, as reported by PROPFIND.
+ */
+class RemoteResource {
+
+	/**
+	 * The checksums stored by ownCloud and Nextcloud, e.g. from an
+	 * <code>OC-Checksum</code> header, as a space-separated list of
+	 * <code>ALGORITHM:hex</code> pairs.
+	 */
+	static final DavPropertyName CHECKSUMS =
+		DavPropertyName.create("checksums", Namespace.getNamespace("oc", "http://owncloud.org/ns"));
+
+	private final long size;
+	private final String etag;
+	private final String checksums;
+
+	RemoteResource(final long size, final String etag) {
+		this(size, etag, null);
+	}
+
+	RemoteResource(final long size, final String etag, final String checksums) {
+		this.size = size;
+		this.etag = etag;
+		this.checksums = checksums;
+	}
+
+	static RemoteResource fromProperties(final DavPropertySet properties) {
+		final String length = getString(properties, DavPropertyName.GETCONTENTLENGTH);
+		long size = -1;
+		if (length != null) try {
+			size = Long.parseLong(length.trim());
+		} catch (NumberFormatException e) {
+			// leave size unknown
+		}
+		return new RemoteResource(size, normalizeETag(getString(properties, DavPropertyName.GETETAG)),
+			getString(properties, CHECKSUMS));
+	}
+
+	/**
+	 * Strips the quotes and the weak marker off an ETag.
+	 */
+	static String normalizeETag(String etag) {
+		if (etag == null) return null;
+		etag = etag.trim();
+		if (etag.startsWith("W/")) etag = etag.substring(2);
+		if (etag.length() >= 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+			etag = etag.substring(1, etag.length() - 1);
+		}
+		return etag.isEmpty() ? null : etag;
+	}
+
+	private static String getString(final DavPropertySet properties, final DavPropertyName name) {
+		final DavProperty<?> property = properties.get(name);
+		final Object value = property == null ? null : property.getValue();
+		return value == null ? null : getText(value);
+	}
+
+	private static String getText(final Object value) {
+		if (value instanceof Node) return ((Node) value).getTextContent();
+		if (value instanceof Collection) {
+			final StringBuilder builder = new StringBuilder();
+			for (final Object item : (Collection<?>) value) {
+				if (builder.length() > 0) builder.append(' ');
+				builder.append(getText(item));
+			}
+			return builder.toString();
+		}
+		return value.toString();
+	}
+
+	/**
+	 * @return the size in bytes, or -1 if unknown
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the ETag without quotes, or null if unknown
+	 */
+	String getETag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the server-side checksum for the given algorithm, if the server
+	 * reported one (see {@link #CHECKSUMS}).
+	 * 
+	 * @param algorithm e.g. <code>MD5</code> or <code>SHA256</code>
+	 * @return the lower-case hex checksum, or null if unknown
+	 */
+	String getChecksum(final String algorithm) {
+		if (checksums == null) return null;
+		final String prefix = algorithm.toUpperCase(Locale.ROOT) + ":";
+		for (final String checksum : checksums.trim().split("\\s+")) {
+			if (checksum.toUpperCase(Locale.ROOT).startsWith(prefix)) {
+				return checksum.substring(prefix.length()).toLowerCase(Locale.ROOT);
+			}
+		}
+		return null;
+	}
+}
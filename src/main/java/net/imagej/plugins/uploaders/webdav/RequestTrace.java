@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * A fixed-size ring buffer of the most recent requests of an upload session.
+ * <p>
+ * Recording a request only stores references to objects that exist anyway
+ * (method, URI, a few headers, the exception) and some numbers into a
+ * preallocated slot; nothing is formatted until the trace is dumped, e.g.
+ * when an upload failed. That way, the trace of a failed upload is always
+ * available, without the cost of logging every header of every request.
+ * </p>
+ */
+class RequestTrace {
+
+	/** The request headers included in the trace. */
+	static final String[] REQUEST_HEADERS = { "Depth", "Destination", "Overwrite", "If", "Content-Range", "Content-Encoding" };
+
+	/** The response headers included in the trace. */
+	static final String[] RESPONSE_HEADERS = { "Retry-After", "WWW-Authenticate", "Lock-Token" };
+
+	private final Event[] events;
+	private final int mask;
+	private final AtomicLong next = new AtomicLong();
+
+	/**
+	 * @param capacity the number of requests to remember, rounded up to a
+	 *          power of two
+	 */
+	RequestTrace(final int capacity) {
+		final int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		events = new Event[size];
+		for (int i = 0; i < size; i++) {
+			events[i] = new Event();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Records one attempt to execute a request.
+	 * 
+	 * @param start the {@link System#nanoTime()} when the request was sent
+	 * @param response the response, or null if the attempt failed
+	 * @param failure the reason why the attempt failed, or null
+	 */
+	void record(final HttpUriRequest request, final int attempt, final long start,
+			final HttpResponse response, final IOException failure) {
+		final long end = System.nanoTime();
+		final long sequence = next.getAndIncrement();
+		final Event event = events[(int) (sequence & mask)];
+		synchronized (event) {
+			event.sequence = sequence;
+			event.time = System.currentTimeMillis() - (end - start) / 1000000;
+			event.nanos = end - start;
+			event.thread = Thread.currentThread().getName();
+			event.method = request.getMethod();
+			event.uri = request.getURI();
+			event.attempt = attempt;
+			event.requestLength = getContentLength(request instanceof HttpEntityEnclosingRequest ?
+				((HttpEntityEnclosingRequest) request).getEntity() : null);
+			for (int i = 0; i < REQUEST_HEADERS.length; i++) {
+				event.requestHeaders[i] = request.getFirstHeader(REQUEST_HEADERS[i]);
+			}
+			event.status = response == null ? -1 : response.getStatusLine().getStatusCode();
+			event.reason = response == null ? null : response.getStatusLine().getReasonPhrase();
+			event.responseLength = response == null ? -1 : getContentLength(response.getEntity());
+			for (int i = 0; i < RESPONSE_HEADERS.length; i++) {
+				event.responseHeaders[i] = response == null ? null : response.getFirstHeader(RESPONSE_HEADERS[i]);
+			}
+			event.failure = failure;
+		}
+	}
+
+	/**
+	 * Writes the recorded requests, oldest first, one per line.
+	 */
+	void dump(final Appendable out) throws IOException {
+		final long end = next.get();
+		final StringBuilder line = new StringBuilder();
+		for (long sequence = Math.max(0, end - events.length); sequence < end; sequence++) {
+			final Event event = events[(int) (sequence & mask)];
+			line.setLength(0);
+			synchronized (event) {
+				// skip events that were overwritten in the meantime
+				if (event.sequence != sequence) continue;
+				event.format(line);
+			}
+			out.append(line).append('\n');
+		}
+	}
+
+	/** @return the number of requests recorded so far */
+	long getCount() {
+		return next.get();
+	}
+
+	private static long getContentLength(final HttpEntity entity) {
+		return entity == null ? 0 : entity.getContentLength();
+	}
+
+	private static class Event {
+		private long sequence = -1, time, nanos, requestLength, responseLength;
+		private String thread, method, reason;
+		private URI uri;
+		private int attempt, status;
+		private final Header[] requestHeaders = new Header[REQUEST_HEADERS.length];
+		private final Header[] responseHeaders = new Header[RESPONSE_HEADERS.length];
+		private IOException failure;
+
+		private void format(final StringBuilder out) {
+			out.append(Instant.ofEpochMilli(time)).append(" #").append(sequence);
+			out.append(" [").append(thread).append("] ");
+			out.append(method).append(' ').append(uri);
+			if (attempt > 0) out.append(" (retry ").append(attempt).append(')');
+			appendHeaders(out, requestHeaders);
+			out.append(" -> ");
+			if (failure != null) {
+				out.append(failure);
+			} else {
+				out.append(status).append(' ').append(reason);
+				appendHeaders(out, responseHeaders);
+			}
+			out.append(" in ").append(nanos / 1000000).append(" ms, sent ");
+			appendLength(out, requestLength);
+			if (failure == null) {
+				out.append(", received ");
+				appendLength(out, responseLength);
+			}
+		}
+
+		private static void appendHeaders(final StringBuilder out, final Header[] headers) {
+			for (final Header header : headers) {
+				if (header != null) {
+					out.append(' ').append(header.getName()).append(": ").append(header.getValue()).append(';');
+				}
+			}
+		}
+
+		private static void appendLength(final StringBuilder out, final long length) {
+			if (length < 0) out.append("(chunked)");
+			else out.append(length).append(" bytes");
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Decides which failed WebDAV requests are retried, and when.
+ * <p>
+ * Only requests that can be repeated without changing the outcome are
+ * retried: PUT, COPY (which always overwrites), PROPFIND, MKCOL, UNLOCK,
+ * DELETE and the read-only methods.
+ * LOCK and MOVE are never retried, since repeating them after a lost response
+ * would fail. Retries happen after I/O errors such as connection resets and
+ * timeouts, and after the status codes 502, 503 and 504.
+ * </p>
+ * <p>
+ * The delays grow exponentially, with "full jitter" so that concurrent
+ * uploads do not retry in lock step. In addition to the limit per request,
+ * there is a budget for the whole upload session, so that a dead server does
+ * not cause every single file to be retried.
+ * </p>
+ * <p>
+ * The following system properties configure the policy:
+ * <dl>
+ * <dt>webdav.maxRetries</dt><dd>The maximal number of retries per request (default: 4)</dd>
+ * <dt>webdav.retryBudget</dt><dd>The maximal number of retries per upload session (default: 50)</dd>
+ * <dt>webdav.retryDelay</dt><dd>The initial delay in milliseconds (default: 500)</dd>
+ * <dt>webdav.maxRetryDelay</dt><dd>The maximal delay in milliseconds (default: 30000)</dd>
+ * </dl>
+ * </p>
+ */
+class RetryPolicy {
+
+	/**
+	 * The context attribute holding the number of retries of a request, if
+	 * it was retried.
+	 */
+	static final String RETRIES = "webdav.retries";
+
+	private static final Set<String> RETRYABLE_METHODS = new HashSet<>(Arrays.asList(
+		"PUT", "COPY", "PROPFIND", "MKCOL", "UNLOCK", "DELETE", "GET", "HEAD", "OPTIONS"));
+
+	private final int maxRetries;
+	private final int budget;
+	private final long initialDelay, maxDelay;
+	private final AtomicInteger remaining;
+
+	RetryPolicy() {
+		this(Integer.getInteger("webdav.maxRetries", 4),
+			Integer.getInteger("webdav.retryBudget", 50),
+			Long.getLong("webdav.retryDelay", 500),
+			Long.getLong("webdav.maxRetryDelay", 30000));
+	}
+
+	RetryPolicy(final int maxRetries, final int budget, final long initialDelay, final long maxDelay) {
+		this.maxRetries = maxRetries;
+		this.budget = budget;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		remaining = new AtomicInteger(budget);
+	}
+
+	/**
+	 * Refills the retry budget; to be called at the start of an upload session.
+	 */
+	void reset() {
+		remaining.set(budget);
+	}
+
+	/**
+	 * Determines whether the given request should be retried after it failed
+	 * with the given exception. Consumes one unit of the budget if so.
+	 */
+	boolean shouldRetry(final HttpUriRequest request, final IOException exception, final int retries) {
+		return isRetryable(exception) && canRetry(request, retries);
+	}
+
+	/**
+	 * Determines whether the given request should be retried after the server
+	 * answered with the given response. Consumes one unit of the budget if so.
+	 */
+	boolean shouldRetry(final HttpUriRequest request, final HttpResponse response, final int retries) {
+		return isRetryable(response.getStatusLine().getStatusCode()) && canRetry(request, retries);
+	}
+
+	/**
+	 * Returns how many milliseconds to wait before the given retry (counting
+	 * from 0), honoring a <code>Retry-After</code> header if there is one.
+	 */
+	long getDelay(final int retries, final HttpResponse response) {
+		long delay = initialDelay << Math.min(retries, 30);
+		if (delay <= 0 || delay > maxDelay) delay = maxDelay;
+		delay = ThreadLocalRandom.current().nextLong(delay + 1);
+		if (response != null) {
+			final Header retryAfter = response.getFirstHeader("Retry-After");
+			if (retryAfter != null) try {
+				delay = Math.max(delay, Math.min(maxDelay, 1000 * Long.parseLong(retryAfter.getValue().trim())));
+			} catch (NumberFormatException e) {
+				// an HTTP date; ignore
+			}
+		}
+		return delay;
+	}
+
+	static boolean isRetryable(final int status) {
+		return status == 502 || status == 503 || status == 504;
+	}
+
+	static boolean isRetryable(final IOException exception) {
+		if (exception instanceof UnknownHostException) return false;
+		if (exception instanceof SSLException) return false;
+		if (exception instanceof ClientProtocolException) return false;
+		// aborted requests must not be retried, timeouts are fine
+		if (exception instanceof InterruptedIOException) return exception instanceof SocketTimeoutException || exception instanceof ConnectTimeoutException;
+		return true;
+	}
+
+	static boolean isRetryable(final HttpUriRequest request) {
+		if (request.isAborted() || !RETRYABLE_METHODS.contains(request.getMethod())) return false;
+		if (request instanceof HttpEntityEnclosingRequest) {
+			final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			if (entity != null && !entity.isRepeatable()) return false;
+		}
+		return true;
+	}
+
+	private boolean canRetry(final HttpUriRequest request, final int retries) {
+		if (retries >= maxRetries || !isRetryable(request)) return false;
+		for (;;) {
+			final int current = remaining.get();
+			if (current <= 0) return false;
+			if (remaining.compareAndSet(current, current - 1)) return true;
+		}
+	}
+}
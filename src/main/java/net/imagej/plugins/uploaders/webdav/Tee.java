@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Reads a stream once, and hands its content to several consumers.
+ * <p>
+ * Each consumer reads from its own {@link InputStream}, which buffers at most
+ * a given number of bytes. When the buffer of a consumer is full, reading
+ * the source blocks until the consumer catches up, so that a slow consumer
+ * slows down all of them, instead of the content being buffered in memory.
+ * A consumer that closes its stream is no longer waited for.
+ * </p>
+ */
+class Tee {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final Pipe[] pipes;
+
+	/**
+	 * @param consumers the number of consumers
+	 * @param bufferSize the number of bytes to buffer for each consumer
+	 */
+	Tee(final int consumers, final int bufferSize) {
+		pipes = new Pipe[consumers];
+		for (int i = 0; i < consumers; i++) {
+			pipes[i] = new Pipe(Math.max(1, bufferSize / CHUNK_SIZE));
+		}
+	}
+
+	/** Returns the stream of the given consumer. */
+	InputStream getInput(final int consumer) {
+		return pipes[consumer];
+	}
+
+	/**
+	 * Reads the given stream to the end, handing the bytes to the consumers.
+	 * If reading fails, the consumers fail, too. The stream is not closed.
+	 * 
+	 * @param digest the digest to update with the bytes, or null
+	 */
+	void pump(final InputStream in, final ContentDigest digest) throws IOException {
+		long position = 0;
+		try {
+			for (;;) {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				final int count = readFully(in, chunk);
+				if (count <= 0) break;
+				if (count < chunk.length) chunk = Arrays.copyOf(chunk, count);
+				if (digest != null) digest.update(position, chunk, 0, count);
+				position += count;
+				boolean reading = false;
+				for (final Pipe pipe : pipes) {
+					if (pipe.offer(chunk)) reading = true;
+				}
+				// nobody is interested in the rest
+				if (!reading) return;
+			}
+			for (final Pipe pipe : pipes) {
+				pipe.finish(null);
+			}
+		} catch (IOException | RuntimeException e) {
+			for (final Pipe pipe : pipes) {
+				pipe.finish(e);
+			}
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			final IOException failure = new InterruptedIOException("Interrupted while reading");
+			for (final Pipe pipe : pipes) {
+				pipe.finish(failure);
+			}
+			throw failure;
+		}
+	}
+
+	private static int readFully(final InputStream in, final byte[] buffer) throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			final int count = in.read(buffer, offset, buffer.length - offset);
+			if (count < 0) break;
+			offset += count;
+		}
+		return offset;
+	}
+
+	private static class Pipe extends InputStream {
+
+		private final int capacity;
+		private final Deque<byte[]> chunks = new ArrayDeque<>();
+		private byte[] current;
+		private int offset;
+		private boolean finished, closed;
+		private Exception failure;
+
+		private Pipe(final int capacity) {
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Waits until there is room for the given chunk.
+		 * 
+		 * @return false if the consumer closed the stream
+		 */
+		private synchronized boolean offer(final byte[] chunk) throws InterruptedException {
+			while (!closed && chunks.size() >= capacity) {
+				wait();
+			}
+			if (closed) return false;
+			chunks.add(chunk);
+			notifyAll();
+			return true;
+		}
+
+		private synchronized void finish(final Exception failure) {
+			finished = true;
+			this.failure = failure;
+			notifyAll();
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] buffer = new byte[1];
+			return read(buffer, 0, 1) < 0 ? -1 : buffer[0] & 0xff;
+		}
+
+		@Override
+		public synchronized int read(final byte[] buffer, final int start, final int length) throws IOException {
+			if (length == 0) return 0;
+			while (current == null) {
+				if (closed) throw new IOException("Stream closed");
+				if (!chunks.isEmpty()) {
+					current = chunks.remove();
+					offset = 0;
+					notifyAll();
+				} else if (failure != null) {
+					throw new IOException("Could not read the source", failure);
+				} else if (finished) {
+					return -1;
+				} else try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the source");
+				}
+			}
+			final int count = Math.min(length, current.length - offset);
+			System.arraycopy(current, offset, buffer, start, count);
+			offset += count;
+			if (offset == current.length) current = null;
+			return count;
+		}
+
+		@Override
+		public synchronized int available() {
+			return current == null ? 0 : current.length - offset;
+		}
+
+		@Override
+		public synchronized void close() {
+			closed = true;
+			chunks.clear();
+			current = null;
+			notifyAll();
+		}
+	}
+}
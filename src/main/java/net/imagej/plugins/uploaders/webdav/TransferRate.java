@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+/**
+ * Estimates the throughput and remaining time of an upload session.
+ * <p>
+ * The rate is an exponentially weighted moving average over the last few
+ * seconds, so that short stalls or bursts do not make the estimate jump.
+ * All methods are thread-safe.
+ * </p>
+ */
+class TransferRate {
+
+	/** The time constant of the moving average. */
+	private static final double SMOOTHING_NANOS = 5e9;
+
+	/** The minimal time between two samples. */
+	private static final long SAMPLE_INTERVAL_NANOS = 250L * 1000 * 1000;
+
+	/** The minimal time between two updates of the displayed estimate. */
+	private static final long DISPLAY_INTERVAL_NANOS = 1000L * 1000 * 1000;
+
+	private long lastBytes, lastTime, lastDisplay;
+	private double bytesPerSecond = -1;
+
+	TransferRate() {
+		this(System.nanoTime());
+	}
+
+	TransferRate(final long startTime) {
+		lastTime = lastDisplay = startTime;
+	}
+
+	/**
+	 * Records that the given number of bytes have been transferred in total.
+	 * 
+	 * @return whether the displayed estimate should be refreshed
+	 */
+	boolean update(final long bytes) {
+		return update(bytes, System.nanoTime());
+	}
+
+	synchronized boolean update(final long bytes, final long now) {
+		final long elapsed = now - lastTime;
+		if (elapsed >= SAMPLE_INTERVAL_NANOS) {
+			final double current = (bytes - lastBytes) * 1e9 / elapsed;
+			if (bytesPerSecond < 0) {
+				bytesPerSecond = current;
+			} else {
+				final double alpha = 1 - Math.exp(-elapsed / SMOOTHING_NANOS);
+				bytesPerSecond += alpha * (current - bytesPerSecond);
+			}
+			lastBytes = bytes;
+			lastTime = now;
+		}
+		if (bytesPerSecond < 0 || now - lastDisplay < DISPLAY_INTERVAL_NANOS) return false;
+		lastDisplay = now;
+		return true;
+	}
+
+	/**
+	 * Records that the given number of bytes need not be transferred, so that
+	 * they do not count towards the throughput.
+	 */
+	synchronized void skip(final long bytes) {
+		lastBytes += bytes;
+	}
+
+	/**
+	 * @return the smoothed number of bytes per second, or -1 if unknown yet
+	 */
+	synchronized double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Describes the current throughput and the estimated remaining time, e.g.
+	 * <code>2.5 MB/s, 1:05 remaining</code>.
+	 */
+	String describe(final long remainingBytes) {
+		final double rate = getBytesPerSecond();
+		if (rate < 0) return "";
+		final StringBuilder builder = new StringBuilder();
+		if (rate >= 1e6) builder.append(String.format("%.1f MB/s", rate / 1e6));
+		else builder.append(String.format("%.0f kB/s", rate / 1e3));
+		if (rate > 0) {
+			long seconds = Math.round(Math.max(0, remainingBytes) / rate);
+			builder.append(", ");
+			if (seconds >= 3600) {
+				builder.append(seconds / 3600).append(':');
+				seconds %= 3600;
+				builder.append(String.format("%02d:", seconds / 60));
+			} else {
+				builder.append(seconds / 60).append(':');
+			}
+			builder.append(String.format("%02d remaining", seconds % 60));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,338 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An append-only journal of the uploads to an update site, so that an
+ * interrupted upload can be resumed.
+ * <p>
+ * The journal records, one per line, the locks obtained, the files uploaded
+ * completely, and the lock files about to be moved:
+ * </p>
+ * <pre>
+ * LOCK &lt;token&gt; &lt;path&gt;
+ * UNLOCK &lt;path&gt;
+ * PUT &lt;size&gt; &lt;md5 or -&gt; &lt;path&gt;
+ * MOVE &lt;path&gt;
+ * MOVED &lt;path&gt;
+ * </pre>
+ * <p>
+ * When opened, the journal replays the records of earlier sessions, and
+ * rewrites the file to contain only what is still relevant. A trailing line
+ * that was not written completely is ignored.
+ * </p>
+ * <p>
+ * Records are written right away, but only forced to the disk every
+ * {@link #syncInterval} milliseconds, or when {@link #sync()} is called:
+ * a crash of the JVM loses nothing, a crash of the operating system at most
+ * the most recent records, which merely means that some work is redone.
+ * For the same reason, a failure to write a record does not fail the upload;
+ * it is remembered, and no further records are written.
+ * </p>
+ */
+class UploadJournal implements Closeable {
+
+	private static final String HEADER = "WebDAV upload journal 1 ";
+
+	/** A file uploaded completely. */
+	static class Upload {
+		private final long size;
+		private final String md5;
+
+		Upload(final long size, final String md5) {
+			this.size = size;
+			this.md5 = md5;
+		}
+
+		long getSize() {
+			return size;
+		}
+
+		/** Returns the MD5 digest of the content in hex, or null if unknown. */
+		String getMD5() {
+			return md5;
+		}
+	}
+
+	private final File file;
+	private final long syncInterval;
+	private final FileChannel channel;
+	private final FileLock lock;
+	private long lastSync = System.nanoTime();
+	private IOException failure;
+	private final Map<String, String> locks = new LinkedHashMap<>();
+	private final Map<String, Upload> uploads = new LinkedHashMap<>();
+	private final Set<String> pendingMoves = new LinkedHashSet<>();
+
+	/**
+	 * Opens the journal of the given update site, replaying the records of
+	 * earlier sessions.
+	 * 
+	 * @throws IOException if the journal cannot be read or written, or if it
+	 *           is in use by another upload
+	 */
+	UploadJournal(final File file, final String baseURL, final long syncInterval) throws IOException {
+		this.file = file;
+		this.syncInterval = syncInterval;
+		final File directory = file.getParentFile();
+		if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not make " + directory);
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			lock = channel.tryLock();
+			if (lock == null) throw new IOException(file + " is in use by another upload");
+			replay(read(), HEADER + baseURL);
+			compact(HEADER + baseURL);
+		} catch (IOException | OverlappingFileLockException e) {
+			channel.close();
+			if (e instanceof IOException) throw (IOException) e;
+			throw new IOException(file + " is in use by another upload", e);
+		}
+	}
+
+	/**
+	 * Returns the journal file of the given update site in the given
+	 * directory.
+	 */
+	static File getFile(final File directory, final String baseURL) {
+		final byte[] bytes = baseURL.getBytes(StandardCharsets.UTF_8);
+		return new File(directory, Digests.toHex(Digests.getInstance("SHA-1").digest(bytes)) + ".journal");
+	}
+
+	private String read() throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, buffer.position()) < 0) break;
+		}
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+	}
+
+	private void replay(final String content, final String header) {
+		final String[] lines = content.split("\n", -1);
+		// the last element is empty, or a line that was not written completely
+		if (lines.length < 2 || !lines[0].equals(header)) return;
+		for (int i = 1; i < lines.length - 1; i++) {
+			apply(lines[i]);
+		}
+	}
+
+	private void apply(final String line) {
+		final int space = line.indexOf(' ');
+		if (space < 0) return;
+		final String type = line.substring(0, space), rest = line.substring(space + 1);
+		try {
+			switch (type) {
+				case "LOCK": {
+					final int space2 = rest.indexOf(' ');
+					if (space2 > 0) locks.put(rest.substring(space2 + 1), rest.substring(0, space2));
+					break;
+				}
+				case "UNLOCK":
+					locks.remove(rest);
+					break;
+				case "PUT": {
+					final String[] fields = rest.split(" ", 3);
+					if (fields.length < 3) break;
+					uploads.put(fields[2], new Upload(Long.parseLong(fields[0]), "-".equals(fields[1]) ? null : fields[1]));
+					break;
+				}
+				case "MOVE":
+					pendingMoves.add(rest);
+					break;
+				case "MOVED":
+					// a MOVE releases the lock of its source
+					pendingMoves.remove(rest);
+					locks.remove(rest);
+					break;
+			}
+		} catch (NumberFormatException e) {
+			// ignore corrupt record
+		}
+	}
+
+	private void compact(final String header) throws IOException {
+		final StringBuilder builder = new StringBuilder(header).append('\n');
+		for (final Map.Entry<String, String> entry : locks.entrySet()) {
+			builder.append("LOCK ").append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+		}
+		for (final Map.Entry<String, Upload> entry : uploads.entrySet()) {
+			builder.append(toRecord(entry.getKey(), entry.getValue())).append('\n');
+		}
+		for (final String path : pendingMoves) {
+			builder.append("MOVE ").append(path).append('\n');
+		}
+		channel.truncate(0);
+		channel.position(0);
+		write(builder.toString());
+		channel.force(false);
+	}
+
+	private static String toRecord(final String path, final Upload upload) {
+		return "PUT " + upload.size + " " + (upload.md5 == null ? "-" : upload.md5) + " " + path;
+	}
+
+	/**
+	 * Returns the locks that were obtained, but neither released nor moved,
+	 * keyed by path.
+	 */
+	synchronized Map<String, String> getLocks() {
+		return new LinkedHashMap<>(locks);
+	}
+
+	/** Returns the file uploaded completely to the given path, if any. */
+	synchronized Upload getUpload(final String path) {
+		return uploads.get(path);
+	}
+
+	/** Returns the lock files whose move was started, but not confirmed. */
+	synchronized Set<String> getPendingMoves() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(pendingMoves));
+	}
+
+	synchronized void lock(final String path, final String token) {
+		locks.put(path, token);
+		append("LOCK " + token + " " + path);
+	}
+
+	synchronized void unlock(final String path) {
+		if (locks.remove(path) != null) append("UNLOCK " + path);
+	}
+
+	/**
+	 * Records a completed upload.
+	 * 
+	 * @param md5 the MD5 digest of the content in hex, or null if unknown
+	 */
+	synchronized void put(final String path, final long size, final String md5) {
+		final Upload upload = new Upload(size, md5);
+		uploads.put(path, upload);
+		append(toRecord(path, upload));
+	}
+
+	synchronized void move(final String path) {
+		pendingMoves.add(path);
+		append("MOVE " + path);
+	}
+
+	synchronized void moved(final String path) {
+		pendingMoves.remove(path);
+		locks.remove(path);
+		append("MOVED " + path);
+	}
+
+	/** Whether the journal records nothing that a later session could use. */
+	synchronized boolean isEmpty() {
+		return locks.isEmpty() && uploads.isEmpty() && pendingMoves.isEmpty();
+	}
+
+	private void append(final String record) {
+		if (failure != null) return;
+		try {
+			write(record + "\n");
+			final long now = System.nanoTime();
+			if (now - lastSync >= syncInterval * 1000000L) {
+				channel.force(false);
+				lastSync = now;
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/** Returns the first failure to write a record, if any. */
+	synchronized IOException getFailure() {
+		return failure;
+	}
+
+	private void write(final String text) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/** Forces all records to the disk. */
+	synchronized void sync() {
+		if (failure != null) return;
+		try {
+			channel.force(false);
+			lastSync = System.nanoTime();
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Closes the journal, deleting it if it records nothing a later session
+	 * could use.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen()) return;
+		final boolean empty = isEmpty();
+		try {
+			if (!empty) channel.force(false);
+			lock.release();
+		} finally {
+			channel.close();
+		}
+		if (empty && !file.delete()) {
+			throw new IOException("Could not delete " + file);
+		}
+	}
+
+	/** Closes and deletes the journal, e.g. after a successful upload. */
+	synchronized void delete() throws IOException {
+		locks.clear();
+		uploads.clear();
+		pendingMoves.clear();
+		close();
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpConnectionMetrics;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+/**
+ * The metrics of all WebDAV requests in this JVM.
+ * <p>
+ * The metrics are recorded by a {@link HttpRequestExecutor} of the shared
+ * client (see {@link #createRequestExecutor()}), i.e. once per HTTP exchange:
+ * an upload answered by an authentication challenge counts as two requests.
+ * All counters are lock-free, so that recording does not slow down
+ * concurrent uploads. The metrics are registered as MXBeans in the platform
+ * MBean server, if available.
+ * </p>
+ */
+class UploadMetrics implements UploadMetricsMXBean {
+
+	static final String DOMAIN = "net.imagej.plugins.uploaders.webdav";
+
+	private static final UploadMetrics instance = new UploadMetrics(true);
+
+	private final boolean registerMBeans;
+	private final ConcurrentMap<String, Requests> requests = new ConcurrentHashMap<>();
+	private final LongAdder challenges = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder newConnections = new LongAdder();
+	private final LongAdder reusedConnections = new LongAdder();
+
+	UploadMetrics(final boolean registerMBeans) {
+		this.registerMBeans = registerMBeans;
+		if (registerMBeans) register(this, UploadMetricsMXBean.class, "type=Uploads");
+	}
+
+	static UploadMetrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Records an HTTP exchange.
+	 * 
+	 * @param status the response's status code, or -1 if there was no response
+	 * @param nanos the time until the response's head was received
+	 * @param bytesSent the number of bytes sent, including headers
+	 */
+	void recordRequest(final String method, final int status, final long nanos, final long bytesSent) {
+		final Requests metrics = getRequests(method, status < 0 ? "error" : (status / 100) + "xx");
+		metrics.latency.record(nanos);
+		if (bytesSent > 0) metrics.bytesSent.add(bytesSent);
+		if (status == 401 || status == 407) challenges.increment();
+	}
+
+	void recordConnection(final boolean reused) {
+		(reused ? reusedConnections : newConnections).increment();
+	}
+
+	void recordRetry() {
+		retries.increment();
+	}
+
+	Collection<RequestMetricsMXBean> getRequestMetrics() {
+		return new ArrayList<>(requests.values());
+	}
+
+	private Requests getRequests(final String method, final String statusClass) {
+		final String key = method + " " + statusClass;
+		Requests result = requests.get(key);
+		if (result == null) {
+			final Requests created = new Requests(method, statusClass);
+			result = requests.putIfAbsent(key, created);
+			if (result == null) {
+				result = created;
+				if (registerMBeans) {
+					register(result, RequestMetricsMXBean.class,
+						"type=Requests,method=" + method + ",status=" + statusClass);
+				}
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public long getRequestCount() {
+		long count = 0;
+		for (final Requests metrics : requests.values()) {
+			count += metrics.getCount();
+		}
+		return count;
+	}
+
+	@Override
+	public long getFailedRequestCount() {
+		long count = 0;
+		for (final Requests metrics : requests.values()) {
+			if ("error".equals(metrics.statusClass)) count += metrics.getCount();
+		}
+		return count;
+	}
+
+	@Override
+	public long getBytesSent() {
+		long count = 0;
+		for (final Requests metrics : requests.values()) {
+			count += metrics.getBytesSent();
+		}
+		return count;
+	}
+
+	@Override
+	public long getAuthChallenges() {
+		return challenges.sum();
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	@Override
+	public double getConnectionReuseRatio() {
+		final long reused = reusedConnections.sum();
+		final long total = reused + newConnections.sum();
+		return total == 0 ? 0 : (double) reused / total;
+	}
+
+	@Override
+	public void reset() {
+		for (final Requests metrics : requests.values()) {
+			metrics.latency.reset();
+			metrics.bytesSent.reset();
+		}
+		challenges.reset();
+		retries.reset();
+		newConnections.reset();
+		reusedConnections.reset();
+	}
+
+	private static <T> void register(final T mbean, final Class<T> mbeanInterface, final String properties) {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new StandardMBean(mbean, mbeanInterface, true), name);
+			}
+		} catch (JMException | SecurityException e) {
+			// monitoring is optional, uploading is not
+		}
+	}
+
+	/**
+	 * Creates a request executor recording every exchange with the server,
+	 * the reuse of its connection and the bytes sent over it.
+	 */
+	HttpRequestExecutor createRequestExecutor() {
+		return new HttpRequestExecutor() {
+
+			@Override
+			public HttpResponse execute(final HttpRequest request, final HttpClientConnection connection,
+					final HttpContext context) throws IOException, HttpException {
+				final HttpConnectionMetrics metrics = connection.getMetrics();
+				final long requestsBefore = metrics.getRequestCount();
+				final long sentBefore = metrics.getSentBytesCount();
+				recordConnection(requestsBefore > 0);
+				final String method = request.getRequestLine().getMethod();
+				final long start = System.nanoTime();
+				int status = -1;
+				try {
+					final HttpResponse response = super.execute(request, connection, context);
+					status = response.getStatusLine().getStatusCode();
+					return response;
+				} finally {
+					long sent = 0;
+					try {
+						sent = connection.getMetrics().getSentBytesCount() - sentBefore;
+					} catch (RuntimeException e) {
+						// the connection was shut down
+					}
+					recordRequest(method, status, System.nanoTime() - start, sent);
+				}
+			}
+		};
+	}
+
+	private static class Requests implements RequestMetricsMXBean {
+
+		private final String method, statusClass;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder bytesSent = new LongAdder();
+
+		private Requests(final String method, final String statusClass) {
+			this.method = method;
+			this.statusClass = statusClass;
+		}
+
+		@Override
+		public String getMethod() {
+			return method;
+		}
+
+		@Override
+		public String getStatusClass() {
+			return statusClass;
+		}
+
+		@Override
+		public long getCount() {
+			return latency.getCount();
+		}
+
+		@Override
+		public long getBytesSent() {
+			return bytesSent.sum();
+		}
+
+		@Override
+		public double getLatencyMeanMillis() {
+			return latency.getMeanMillis();
+		}
+
+		@Override
+		public double getLatencyP50Millis() {
+			return latency.getPercentileMillis(50);
+		}
+
+		@Override
+		public double getLatencyP90Millis() {
+			return latency.getPercentileMillis(90);
+		}
+
+		@Override
+		public double getLatencyP99Millis() {
+			return latency.getPercentileMillis(99);
+		}
+
+		@Override
+		public double getLatencyMaxMillis() {
+			return latency.getMaxMillis();
+		}
+	}
+}
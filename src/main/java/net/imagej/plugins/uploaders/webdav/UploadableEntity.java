@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.imagej.updater.Uploadable;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * A repeatable entity sending (a range of) an {@link Uploadable}.
+ * <p>
+ * The source stream is only opened when the entity is written, and re-opened
+ * every time it is written, so that failed requests can be retried.
+ * </p>
+ * <p>
+ * The content is copied through one buffer of up to {@link #BUFFER_SIZE}
+ * bytes, which is allocated when the entity is written first and reused when
+ * it is sent again. File-backed sources (such as <code>UploadableFile</code>,
+ * whose stream is a {@link FileInputStream}) skip to the offset by seeking.
+ * </p>
+ */
+class UploadableEntity extends AbstractHttpEntity {
+
+	/** The maximal size of the buffer. */
+	static final int BUFFER_SIZE = 256 * 1024;
+
+	private final Uploadable source;
+	private final long offset, length;
+	private final ContentDigest digest;
+
+	/** The buffer, allocated upon first use; the entity is never written concurrently. */
+	private byte[] buffer;
+
+	UploadableEntity(final Uploadable source) {
+		this(source, 0, source.getFilesize());
+	}
+
+	UploadableEntity(final Uploadable source, final long offset, final long length) {
+		this(source, offset, length, null);
+	}
+
+	/**
+	 * @param digest the digest to update with the bytes as they are sent, or
+	 *          null
+	 */
+	UploadableEntity(final Uploadable source, final long offset, final long length, final ContentDigest digest) {
+		this.source = source;
+		this.offset = offset;
+		this.length = length;
+		this.digest = digest;
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	@Override
+	public long getContentLength() {
+		return length;
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		final InputStream in = source.getInputStream();
+		skipFully(in, offset);
+		return in;
+	}
+
+	@Override
+	public void writeTo(final OutputStream out) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[(int) Math.max(1, Math.min(BUFFER_SIZE, length))];
+		}
+		try (InputStream in = source.getInputStream()) {
+			skipFully(in, offset);
+			long position = offset, remaining = length;
+			while (remaining > 0) {
+				final int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (count < 0) {
+					throw new IOException("Unexpected end of " + source.getFilename());
+				}
+				out.write(buffer, 0, count);
+				if (digest != null) digest.update(position, buffer, 0, count);
+				position += count;
+				remaining -= count;
+			}
+		}
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return false;
+	}
+
+	private static void skipFully(final InputStream in, long count) throws IOException {
+		while (count > 0) {
+			final long skipped = in.skip(count);
+			if (skipped > 0) {
+				count -= skipped;
+			} else if (in.read() < 0) {
+				throw new IOException("Unexpected end of stream");
+			} else {
+				count--;
+			}
+		}
+	}
+}
@@ -38,38 +38,74 @@ import net.imagej.updater.util.UpdaterUtil;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.AuthSchemes;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.DateUtils;
 import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.DavException;
+import org.apache.jackrabbit.webdav.MultiStatusResponse;
 import org.apache.jackrabbit.webdav.client.methods.*;
+import org.apache.jackrabbit.webdav.lock.ActiveLock;
+import org.apache.jackrabbit.webdav.lock.LockDiscovery;
 import org.apache.jackrabbit.webdav.lock.LockInfo;
 import org.apache.jackrabbit.webdav.lock.Scope;
 import org.apache.jackrabbit.webdav.lock.Type;
-import org.scijava.log.LogLevel;
+import org.apache.jackrabbit.webdav.property.DavProperty;
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertyNameSet;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
 import org.scijava.log.LogService;
 import org.scijava.log.StderrLogService;
 import org.scijava.plugin.Plugin;
+import org.w3c.dom.Element;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Uploads files to an update server using WebDAV.
@@ -84,26 +120,212 @@ public class WebDAVUploader extends AbstractUploader {
 	private final Set<String> existingDirectories;
 	private LogService log;
 	private boolean debug = false;
-	protected static HttpClient client;
+	protected static HttpClient client = ConnectionPool.getClient();
 	private CredentialsProvider provider;
+
+	/**
+	 * Whether the base URL exists and the credentials may upload to it (see
+	 * {@link #validate()}); reset when either changes.
+	 */
+	private volatile boolean validated;
+
+	/**
+	 * Remembers the Digest or Basic scheme of the first successful challenge,
+	 * so that all subsequent requests of this session authenticate
+	 * preemptively instead of provoking another 401 first.
+	 */
+	private final AuthCache authCache = new BasicAuthCache();
+
+	private static final int MAX_CACHED_URLS = 4096;
+
+	/**
+	 * The encoded URLs of the paths used in this session. Every uploaded file
+	 * needs its URL for several requests (PUT, LOCK, MOVE, UNLOCK, ...).
+	 */
+	private final PathEncoder.Cache<URL> fileURLs = new PathEncoder.Cache<>(MAX_CACHED_URLS);
+	private final PathEncoder.Cache<URL> directoryURLs = new PathEncoder.Cache<>(MAX_CACHED_URLS);
 	ArrayList<String> schemes = new ArrayList<>();
 
+	/**
+	 * The number of files to upload concurrently. Defaults to the value of the
+	 * <code>webdav.threads</code> system property, or 1 (sequential uploads).
+	 */
+	private final int threads = getDefaultThreads();
+
+	/**
+	 * Whether to list the existing remote directories up front, using as few
+	 * PROPFIND requests as possible, instead of checking each directory
+	 * separately. Can be switched off via the
+	 * <code>webdav.prefetchDirectories</code> system property.
+	 */
+	private final boolean prefetchDirectories =
+		!"false".equals(System.getProperty("webdav.prefetchDirectories"));
+
+	/** Whether {@link #existingDirectories} lists all remote directories. */
+	private boolean directoriesPrefetched;
+
+	/**
+	 * Whether to skip uploading files whose content is already on the server.
+	 * Enabled by setting the <code>webdav.skipUnchanged</code> system property
+	 * to <code>true</code>.
+	 */
+	private final boolean skipUnchanged = Boolean.getBoolean("webdav.skipUnchanged");
+
+	/**
+	 * Whether to copy files on the server instead of uploading them, if the
+	 * server has a file with the same content already, e.g. an earlier
+	 * version of the same jar. Enabled by setting the
+	 * <code>webdav.deduplicate</code> system property to <code>true</code>.
+	 */
+	private final boolean deduplicate = Boolean.getBoolean("webdav.deduplicate");
+
+	/** The files found on the server by {@link #prefetchRemoteTree(List)}. */
+	private volatile Map<String, RemoteResource> remoteFiles = Collections.emptyMap();
+
+	/**
+	 * The content of the files on the server, if {@link #deduplicate} is set
+	 * and the remote tree could be listed.
+	 */
+	private volatile ContentIndex contentIndex;
+
+	/**
+	 * Files larger than this many bytes are uploaded in resumable segments,
+	 * i.e. partial PUTs with a <code>Content-Range</code> header. Those are
+	 * not part of WebDAV: many servers reject them, and some overwrite the
+	 * file with the segment, so this is only enabled via the
+	 * <code>webdav.resumableThreshold</code> system property, for servers
+	 * known to support them (default: 0, i.e. disabled).
+	 */
+	private final long resumableThreshold = Long.getLong("webdav.resumableThreshold", 0);
+
+	/**
+	 * The size of the segments of resumable uploads. Configurable via the
+	 * <code>webdav.segmentSize</code> system property (default: 16 MiB).
+	 */
+	private final long segmentSize = Math.max(1, Long.getLong("webdav.segmentSize", 16L << 20));
+
+	/** How often to retry a failed segment before giving up. */
+	private final int resumeAttempts = Integer.getInteger("webdav.resumeAttempts", 3);
+
+	/**
+	 * The lock timeout to request, in milliseconds. Configurable via the
+	 * <code>webdav.lockTimeout</code> system property (in seconds, default:
+	 * 600). The locks are refreshed in the background, so that uploads may
+	 * take longer than that.
+	 */
+	private final long lockTimeout = 1000L * Math.max(1, Long.getLong("webdav.lockTimeout", 600));
+
+	/**
+	 * Whether to compute the digests of the uploaded files while sending them,
+	 * and to verify them against what the server reports afterwards. Can be
+	 * switched off via the <code>webdav.verifyUploads</code> system property.
+	 */
+	private final boolean verifyUploads = !"false".equals(System.getProperty("webdav.verifyUploads"));
+
+	/**
+	 * Files up to this size are read into memory before sending them, so
+	 * that their digest can be sent as <code>Content-MD5</code> and
+	 * <code>OC-Checksum</code> headers; they are still read only once.
+	 * Configurable via the <code>webdav.checksumHeaderLimit</code> system
+	 * property (default: 1 MiB).
+	 */
+	private final long checksumHeaderLimit = Long.getLong("webdav.checksumHeaderLimit", 1L << 20);
+
+	/** The digests of the files uploaded in the current session. */
+	private final Map<String, ContentDigest> uploadedDigests = new ConcurrentHashMap<>();
+
+	/**
+	 * The directory holding the journals of the upload sessions (see
+	 * {@link UploadJournal}), so that interrupted uploads can be resumed.
+	 * Configurable via the <code>webdav.journalDir</code> system property; by
+	 * default (empty) no journals are written. A journal is deleted once its
+	 * session succeeds; the journals of sessions that are never resumed stay
+	 * in the directory until they are deleted by hand.
+	 */
+	private final String journalDirectory = System.getProperty("webdav.journalDir", "");
+
+	/** The journal of the current session, if any. */
+	private volatile UploadJournal journal;
+
+	/** The mirrors of this update site, see {@link #addMirror(String)}. */
+	private final List<WebDAVUploader> mirrors = new ArrayList<>();
+
+	/** The failures of the mirrors in the most recent upload, keyed by base URL. */
+	private Map<String, IOException> mirrorFailures = Collections.emptyMap();
+
+	/**
+	 * How many bytes of a file to buffer for each mirror, at most, when
+	 * uploading to mirrors. Configurable via the
+	 * <code>webdav.mirrorBuffer</code> system property (default: 4 MiB).
+	 */
+	private final int mirrorBufferSize = Math.max(1, Integer.getInteger("webdav.mirrorBuffer", 4 << 20));
+
+	/** Whether the server at a given base URL supports partial PUTs. */
+	private static final Map<String, Boolean> rangedPutSupport = new ConcurrentHashMap<>();
+
+	/**
+	 * Whether to compress the request bodies of compressible files (see
+	 * {@link CompressingEntity}). Configured via the <code>webdav.compress</code>
+	 * system property: <code>true</code> compresses if a probe upload shows
+	 * that the server decodes the bodies, <code>always</code> compresses
+	 * without probing. Disabled by default.
+	 */
+	private final String compress = System.getProperty("webdav.compress", "false");
+
+	/**
+	 * Whether the server at a given base URL decodes compressed bodies. The
+	 * future completes when the probe (see {@link #probeCompression}) is done.
+	 */
+	private static final Map<String, CompletableFuture<Boolean>> compressionSupport = new ConcurrentHashMap<>();
+
+	/**
+	 * Sends the requests; uses the shared pooled {@link #client} unless the
+	 * <code>webdav.transport</code> system property selects an
+	 * {@link AsyncTransport}.
+	 */
+	private Transport transport = createTransport();
+
+	/** The bandwidth limit of this update site, if it has its own. */
+	private BandwidthLimiter siteBandwidthLimiter;
+
+	/** Throttles the uploads of the current session. */
+	private BandwidthLimiter bandwidthLimiter = BandwidthLimiter.getShared();
+
+	/** Decides which failed requests are retried. */
+	private final RetryPolicy retryPolicy = new RetryPolicy();
+
+	/**
+	 * The most recent requests, for diagnosing failed uploads. The number of
+	 * requests to remember can be configured via the
+	 * <code>webdav.traceSize</code> system property (default: 256).
+	 */
+	private final RequestTrace trace = new RequestTrace(Math.max(1, Integer.getInteger("webdav.traceSize", 256)));
+
+	/** Guards the {@link #timestamp}, which is set by the first lock to be obtained. */
+	private final Object timestampLock = new Object();
+
+	/**
+	 * The minimal concurrency of the LOCK, MOVE and UNLOCK phases, which
+	 * consist of short requests, even when uploading sequentially.
+	 */
+	private static final int MIN_BOOKKEEPING_THREADS = 4;
+
+	/** Cancels the current session, see {@link #uploadAsync(List, List)}. */
+	private volatile Cancellation cancellation = new Cancellation();
+
+	/** The futures of the files of the current session, if it runs in the background. */
+	private volatile AsyncUpload asyncUpload;
+
+	/** How often to force the records of the {@link #journal} to the disk, in milliseconds. */
+	private static final long JOURNAL_SYNC_INTERVAL = 1000;
+
 	static class UnauthenticatedException extends Exception {}
 
 	public WebDAVUploader() {
 		provider = new BasicCredentialsProvider();
-		int timeout = 360;
 		schemes.add(AuthSchemes.DIGEST);
 		schemes.add(AuthSchemes.BASIC);
-		RequestConfig config = RequestConfig.custom()
-				.setConnectTimeout(timeout * 1000)
-				.setConnectionRequestTimeout(timeout * 1000)
-				.setSocketTimeout(timeout * 1000)
-				.build();
-		client = HttpClientBuilder.create()
-				.setDefaultCredentialsProvider(provider)
-				.setDefaultRequestConfig(config)
-				.build();
+		ConnectionPool.ensureMaxConnectionsPerRoute(threads);
 
 		existingDirectories = new HashSet<>();
 	}
@@ -136,6 +358,13 @@ public class WebDAVUploader extends AbstractUploader {
 		UpdateSite site = uploader.getFilesCollection().getUpdateSite(uploader.getSiteName(), true);
 		setBaseUrl(site.getURL());
 
+		final String bandwidth = System.getProperty("webdav.bandwidth." + uploader.getSiteName());
+		if (bandwidth != null) try {
+			setBandwidthLimit(Long.parseLong(bandwidth.trim()));
+		} catch (NumberFormatException e) {
+			log.warn("Ignoring invalid bandwidth limit for " + uploader.getSiteName() + ": " + bandwidth);
+		}
+
 		if (username == null || password == null) {
 			int colon = baseURL.indexOf("://");
 			if (colon > 0) try {
@@ -166,6 +395,14 @@ public class WebDAVUploader extends AbstractUploader {
 
 		setCredentials(username, password);
 
+		mirrors.clear();
+		final String mirrorURLs = System.getProperty("webdav.mirrors." + uploader.getSiteName());
+		if (mirrorURLs != null) {
+			for (final String url : mirrorURLs.split("[,\\s]+")) {
+				if (!url.isEmpty()) addMirror(url);
+			}
+		}
+
 		try {
 			if (!isAllowed()) {
 				UpdaterUserInterface.get().error("User " + username + " lacks upload permissions for " + baseURL + " or the password is incorrect.");
@@ -182,85 +419,843 @@ public class WebDAVUploader extends AbstractUploader {
 		}
 		catch (IOException e) {
 			e.printStackTrace();
+			return true;
 		}
+		validated = true;
 		return true;
 	}
 
+	/**
+	 * Checks that the base URL exists and that the credentials allow
+	 * uploading to it, unless that is known already, e.g. from
+	 * {@link #login(FilesUploader)}.
+	 */
+	void validate() throws IOException {
+		if (validated) return;
+		try {
+			if (!isAllowed()) {
+				throw new IOException("User " + username + " lacks upload permissions for " + baseURL + " or the password is incorrect.");
+			}
+			if (!directoryExists("")) {
+				throw new IOException(baseURL + " does not exist yet!");
+			}
+		} catch (UnauthenticatedException e) {
+			throw new IOException("User " + username + " lacks upload permissions for " + baseURL + " or the password is incorrect.");
+		}
+		validated = true;
+	}
+
 	@Override
 	public void logout() {
+		validated = false;
 		username = password = null;
+		authCache.clear();
+		transport.resetAuthentication();
+		for (final WebDAVUploader mirror : mirrors) {
+			mirror.logout();
+		}
+	}
+
+	/**
+	 * Adds a mirror of the update site. Every upload then goes to the mirror,
+	 * too, with the same credentials, and every file is read only once for
+	 * all of them (see {@link MirroredUpload}).
+	 */
+	void addMirror(final String url) {
+		final WebDAVUploader mirror = new WebDAVUploader();
+		mirror.setBaseUrl(url);
+		mirror.log = log != null ? log : new StderrLogService();
+		mirror.debug = debug;
+		if (username != null && password != null) {
+			mirror.setCredentials(username, password);
+		}
+		mirrors.add(mirror);
+		// every upload thread sends to all sites at the same time
+		ConnectionPool.ensureMaxConnectionsPerRoute(threads * (mirrors.size() + 1));
 	}
 
 	// Steps to accomplish entire upload task
 	@Override
 	public synchronized void upload(final List<Uploadable> sources,
 		final List<String> locks) throws IOException {
-		timestamp = -1;
-		Map<String, String> tokens = new HashMap<>();
-		for (final String lock : locks) {
-			final String path = lock + ".lock";
-			final String token = lock(path);
-			tokens.put(path, token);
+		if (!mirrors.isEmpty()) {
+			uploadMirrored(sources, locks);
+			return;
 		}
+		final LockKeeper lockKeeper = new LockKeeper(this::refreshLock);
+		final Map<String, String> tokens = beginSession(locks, lockKeeper);
 		setTitle("Uploading");
 		calculateTotalSize(sources);
-		int count = 0;
+		Throwable failure = null;
 		try {
-			for (final Uploadable source : sources) {
+			prepareSession(sources, tokens);
+			uploadAll(sources, new FileTask() {
 
-				final String target = source.getFilename();
-				String token = tokens.get(target);
+				@Override
+				public void check() throws IOException {
+					lockKeeper.check();
+				}
 
-				// make sure that the target directory exists
-				int slash = target.lastIndexOf('/');
-				if (slash > 0 && ! ensureDirectoryExists(target.substring(0, slash + 1))) {
-					throw new IOException("Could not make subdirectory for " + target);
+				@Override
+				public void prepare(final Uploadable source) throws IOException {
+					makeParentDirectory(source.getFilename());
 				}
 
-				addItem(source);
-				final int[] currentCount = {0};
-				final int currentTotal = (int) source.getFilesize();
-				int finalCount = count;
+				@Override
+				public void upload(final Uploadable source, final ProgressReporter progress) throws IOException {
+					WebDAVUploader.this.upload(source, tokens.get(source.getFilename()), progress);
+				}
+			});
+			finishSession(locks, tokens, lockKeeper);
+		} catch (final Throwable t) {
+			failure = t;
+			throw t;
+		} finally {
+			endSession(tokens, lockKeeper, failure);
+		}
+	}
 
-				ProgressHttpEntityWrapper.ProgressCallback progressCallback = progress -> {
-					currentCount[0] = (int) (currentTotal * progress);
-					setItemCount(currentCount[0], currentTotal);
-					setCount(finalCount + currentCount[0], total);
-				};
+	/**
+	 * Uploads the given files in the background.
+	 * <p>
+	 * This does the same as {@link #upload(List, List)}, but returns right
+	 * away, with futures for the whole session and for the individual files.
+	 * Cancelling the future of the session aborts the requests in flight
+	 * immediately; the locks are still released.
+	 * </p>
+	 */
+	public AsyncUpload uploadAsync(final List<Uploadable> sources, final List<String> locks) {
+		final AsyncUpload upload = new AsyncUpload(sources);
+		new UploadThreadFactory().newThread(() -> upload.run(() -> upload(sources, locks, upload))).start();
+		return upload;
+	}
 
-				upload(source, token, progressCallback);
+	/** Runs a session of {@link #uploadAsync(List, List)}. */
+	private synchronized void upload(final List<Uploadable> sources, final List<String> locks,
+		final AsyncUpload upload) throws IOException {
+		setAsyncUpload(upload, upload.getCancellation());
+		try {
+			upload(sources, locks);
+		} finally {
+			setAsyncUpload(null, new Cancellation());
+		}
+	}
 
-				itemDone(source);
-				count += currentCount[0];
-			}
-			done();
-
-			addItem("Moving locks");
-			for (final String lock : locks) {
-				final String source = lock + ".lock";
-				if (move(source, lock, tokens.get(source), true)) {
-					/*
-					 * According to RFC4918, a MOVE *must not* move the locks.
-					 * And it also says a MOVE is equivalent to a COPY followed
-					 * by a DELETE, hence the lock is gone upon a successful
-					 * MOVE.
-					 */
-					tokens.remove(source);
-				} else {
-					log.error("Could not move " + source + " to " + lock);
+	private void setAsyncUpload(final AsyncUpload upload, final Cancellation cancellation) {
+		asyncUpload = upload;
+		setCancellation(cancellation);
+	}
+
+	private void setCancellation(final Cancellation cancellation) {
+		this.cancellation = cancellation;
+		for (final WebDAVUploader mirror : mirrors) {
+			mirror.setCancellation(cancellation);
+		}
+	}
+
+	/**
+	 * Uploads to the update site and all its mirrors at the same time (see
+	 * {@link MirroredUpload}). The upload fails if the update site fails; the
+	 * failures of the mirrors are logged, and reported by
+	 * {@link #getMirrorFailures()}.
+	 */
+	private void uploadMirrored(final List<Uploadable> sources, final List<String> locks) throws IOException {
+		final List<WebDAVUploader> sites = new ArrayList<>();
+		sites.add(this);
+		sites.addAll(mirrors);
+		final MirroredUpload mirrored = new MirroredUpload(sites, mirrorBufferSize);
+		mirrorFailures = mirrored.getFailures();
+		mirrored.begin(locks);
+		setTitle("Uploading");
+		calculateTotalSize(sources);
+		Throwable failure = null;
+		try {
+			mirrored.prepare(sources);
+			uploadAll(sources, new FileTask() {
+
+				@Override
+				public void check() throws IOException {
+					mirrored.check();
 				}
-			}
+
+				@Override
+				public void prepare(final Uploadable source) throws IOException {
+					mirrored.prepare(source);
+				}
+
+				@Override
+				public void upload(final Uploadable source, final ProgressReporter progress) throws IOException {
+					progress.started(source);
+					if (!mirrored.upload(source, progress.createCallback(source))) {
+						progress.skipped(source);
+						return;
+					}
+					progress.finished(source);
+				}
+			});
+			mirrored.finish(locks);
+		} catch (final Throwable t) {
+			failure = t;
+			throw t;
 		} finally {
-			for (final String key : tokens.keySet()) {
-				final String token = tokens.get(key);
-				if (!unlock(key, token)) {
-					throw new IOException("Could not unlock " + key + " with token " + token);
+			mirrored.end(failure);
+		}
+	}
+
+	/**
+	 * Returns the mirrors to which the most recent upload failed, with the
+	 * respective failures, keyed by base URL. The mirrors of an update site
+	 * are configured via the <code>webdav.mirrors.&lt;site&gt;</code> system
+	 * property, as a comma-separated list of base URLs.
+	 */
+	public Map<String, IOException> getMirrorFailures() {
+		return Collections.unmodifiableMap(mirrorFailures);
+	}
+
+	/**
+	 * Starts an upload session: checks the site (see {@link #validate()}),
+	 * resets the per-session state, opens the journal, and obtains the locks.
+	 * 
+	 * @return the lock tokens, keyed by the paths of the lock files
+	 */
+	Map<String, String> beginSession(final List<String> locks, final LockKeeper lockKeeper) throws IOException {
+		validate();
+		timestamp = -1;
+		retryPolicy.reset();
+		uploadedDigests.clear();
+		bandwidthLimiter = siteBandwidthLimiter != null ? siteBandwidthLimiter : BandwidthLimiter.getShared();
+		journal = openJournal();
+		try {
+			return lockAll(locks, lockKeeper);
+		} catch (IOException e) {
+			lockKeeper.close();
+			closeJournal(false);
+			throw e;
+		}
+	}
+
+	/**
+	 * Lists what is on the server already, as far as needed, and finds out
+	 * whether the server decodes compressed uploads.
+	 */
+	void prepareSession(final List<Uploadable> sources, final Map<String, String> tokens) {
+		if (prefetchDirectories || skipUnchanged || deduplicate) {
+			prefetchRemoteTree(sources);
+		}
+		probeCompression(sources, tokens);
+	}
+
+	/**
+	 * Verifies the uploaded files and moves the lock files to their final
+	 * names.
+	 */
+	void finishSession(final List<String> locks, final Map<String, String> tokens, final LockKeeper lockKeeper) throws IOException {
+		if (verifyUploads) {
+			verifyUploads();
+		}
+		done();
+
+		lockKeeper.check();
+		lockKeeper.close();
+
+		addItem("Moving locks");
+		final List<String> sourcePaths = new ArrayList<>();
+		for (final String lock : locks) {
+			sourcePaths.add(lock + ".lock");
+			if (journal != null) journal.move(lock + ".lock");
+		}
+		if (journal != null) journal.sync();
+		final Map<String, IOException> failures = runConcurrently(sourcePaths, source -> {
+			final String lock = source.substring(0, source.length() - ".lock".length());
+			if (!move(source, lock, tokens.get(source), true)) {
+				throw new IOException("Could not move " + source + " to " + lock);
+			}
+			/*
+			 * According to RFC4918, a MOVE *must not* move the locks.
+			 * And it also says a MOVE is equivalent to a COPY followed
+			 * by a DELETE, hence the lock is gone upon a successful
+			 * MOVE.
+			 */
+			tokens.remove(source);
+			if (journal != null) journal.moved(source);
+		});
+		if (!failures.isEmpty()) {
+			throw aggregate("Could not move", failures);
+		}
+	}
+
+	/**
+	 * Ends an upload session, releasing the remaining locks. If the session
+	 * failed, the most recent requests are reported.
+	 * 
+	 * @param failure the failure of the session, or null if it succeeded
+	 * @throws IOException if the session succeeded, but a lock could not be
+	 *           released
+	 */
+	void endSession(final Map<String, String> tokens, final LockKeeper lockKeeper, final Throwable failure) throws IOException {
+		lockKeeper.close();
+		final Map<String, IOException> failures = unlockAll(tokens);
+		final IOException unlockFailure = failures.isEmpty() ? null : aggregate("Could not unlock", failures);
+		closeJournal(failure == null && unlockFailure == null);
+		if (failure != null) {
+			if (unlockFailure != null) failure.addSuppressed(unlockFailure);
+			reportTrace(failure);
+		} else if (unlockFailure != null) {
+			reportTrace(unlockFailure);
+			throw unlockFailure;
+		} else if (debug) {
+			log.debug("Requests of the upload:\n" + getTrace());
+		}
+	}
+
+	/**
+	 * Writes the most recent requests of this uploader, oldest first, one
+	 * per line.
+	 */
+	public void dumpTrace(final Appendable out) throws IOException {
+		trace.dump(out);
+	}
+
+	private String getTrace() {
+		final StringBuilder builder = new StringBuilder();
+		try {
+			trace.dump(builder);
+		} catch (IOException e) {
+			// cannot happen with a StringBuilder
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Logs the most recent requests after a failed upload, and appends them to
+	 * the file specified by the <code>webdav.traceFile</code> system property,
+	 * if any.
+	 */
+	private void reportTrace(final Throwable failure) {
+		final String requests = getTrace();
+		log.error("Upload failed: " + failure + "; the most recent requests were:\n" + requests);
+		final String path = System.getProperty("webdav.traceFile");
+		if (path == null) return;
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8)) {
+			writer.write("Upload to " + baseURL + " failed: " + failure + "\n");
+			writer.write(requests);
+		} catch (IOException e) {
+			log.warn("Could not write the request trace to " + path, e);
+		}
+	}
+
+	/**
+	 * Obtains all the given locks concurrently. If any of them cannot be
+	 * obtained, the others are released again, and all failures are reported
+	 * together.
+	 * <p>
+	 * Locks left behind by an interrupted session (see {@link #journal}) are
+	 * reused if this session needs them, and released otherwise.
+	 * </p>
+	 * 
+	 * @return the lock tokens, keyed by the paths of the lock files
+	 */
+	private Map<String, String> lockAll(final List<String> locks, final LockKeeper lockKeeper) throws IOException {
+		final Map<String, String> tokens = new ConcurrentHashMap<>();
+		final List<String> paths = new ArrayList<>();
+		for (final String lock : locks) {
+			paths.add(lock + ".lock");
+		}
+		if (journal != null) {
+			recoverLocks(paths, tokens, lockKeeper);
+		}
+		final List<String> missing = new ArrayList<>(paths);
+		missing.removeAll(tokens.keySet());
+		final Map<String, IOException> failures = runConcurrently(missing, path -> tokens.put(path, lock(path, lockKeeper)));
+		if (failures.isEmpty()) return tokens;
+
+		lockKeeper.close();
+		final IOException failure = aggregate("Could not obtain the locks", failures);
+		for (final IOException e : unlockAll(tokens).values()) {
+			failure.addSuppressed(e);
+		}
+		throw failure;
+	}
+
+	private Map<String, IOException> unlockAll(final Map<String, String> tokens) {
+		return runConcurrently(new ArrayList<>(tokens.keySet()), path -> {
+			final String token = tokens.get(path);
+			if (!unlock(path, token)) {
+				throw new IOException("Could not unlock " + path + " with token " + token);
+			}
+			if (journal != null) journal.unlock(path);
+		});
+	}
+
+	/**
+	 * Opens the journal of this update site, reporting what an interrupted
+	 * earlier session left behind.
+	 * 
+	 * @return the journal, or null if journals are disabled or unavailable
+	 */
+	private UploadJournal openJournal() {
+		if (journalDirectory.isEmpty()) return null;
+		try {
+			final File file = UploadJournal.getFile(new File(journalDirectory), baseURL);
+			final UploadJournal result = new UploadJournal(file, baseURL, JOURNAL_SYNC_INTERVAL);
+			if (!result.isEmpty()) {
+				log.info("Resuming an interrupted upload to " + baseURL);
+			}
+			for (final String path : result.getPendingMoves()) {
+				log.warn("An interrupted upload did not finish moving " + path);
+			}
+			return result;
+		} catch (IOException e) {
+			log.warn("Could not open the upload journal; interrupted uploads cannot be resumed", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Closes the journal of the current session. After a successful upload,
+	 * there is nothing left to resume, so the journal is deleted.
+	 */
+	private void closeJournal(final boolean success) {
+		final UploadJournal journal = this.journal;
+		if (journal == null) return;
+		this.journal = null;
+		if (journal.getFailure() != null) {
+			log.warn("Could not write the upload journal; an interrupted upload may redo some work", journal.getFailure());
+		}
+		try {
+			if (success) journal.delete();
+			else journal.close();
+		} catch (IOException e) {
+			log.warn("Could not close the upload journal", e);
+		}
+	}
+
+	/**
+	 * Deals with the locks that an interrupted session obtained, but did not
+	 * release: those needed by this session are refreshed and reused, all
+	 * others are released. Locks that cannot be refreshed have most likely
+	 * expired, and are obtained anew.
+	 */
+	private void recoverLocks(final List<String> paths, final Map<String, String> tokens, final LockKeeper lockKeeper) {
+		final Map<String, String> stale = journal.getLocks();
+		final Map<String, IOException> failures = runConcurrently(new ArrayList<>(stale.keySet()), path -> {
+			final String token = stale.get(path);
+			if (paths.contains(path)) try {
+				lockKeeper.keep(path, token, refreshLock(path, token));
+				tokens.put(path, token);
+				log.info("Reusing the lock for " + path + " of an interrupted upload");
+				return;
+			} catch (IOException e) {
+				log.debug("Could not refresh the lock for " + path + " of an interrupted upload", e);
+			}
+			// a lock that the server does not know anymore is released, too
+			unlock(path, token);
+			journal.unlock(path);
+		});
+		for (final Map.Entry<String, IOException> entry : failures.entrySet()) {
+			log.warn("Could not release the lock for " + entry.getKey() + " of an interrupted upload", entry.getValue());
+		}
+	}
+
+	interface PathTask {
+		void run(String path) throws IOException;
+	}
+
+	/**
+	 * Runs a bookkeeping request (LOCK, MOVE or UNLOCK) for each of the given
+	 * paths concurrently, and returns only after all of them finished, even
+	 * if interrupted: locks must not be released while other requests for
+	 * them are still in flight.
+	 * 
+	 * @return the failures, keyed by path, in the order of the paths
+	 */
+	private Map<String, IOException> runConcurrently(final List<String> paths, final PathTask task) {
+		final Map<String, IOException> failures = new ConcurrentHashMap<>();
+		if (paths.size() < 2) {
+			for (final String path : paths) {
+				run(task, path, failures);
+			}
+			return failures;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(
+			Math.min(paths.size(), Math.max(threads, MIN_BOOKKEEPING_THREADS)), new UploadThreadFactory());
+		for (final String path : paths) {
+			executor.execute(() -> run(task, path, failures));
+		}
+		executor.shutdown();
+		boolean interrupted = false;
+		for (;;) {
+			try {
+				// the requests themselves are bounded by the socket timeouts
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+
+		final Map<String, IOException> result = new LinkedHashMap<>();
+		for (final String path : paths) {
+			final IOException e = failures.get(path);
+			if (e != null) result.put(path, e);
+		}
+		return result;
+	}
+
+	private void run(final PathTask task, final String path, final Map<String, IOException> failures) {
+		try {
+			task.run(path);
+		} catch (IOException e) {
+			failures.put(path, e);
+		} catch (RuntimeException e) {
+			failures.put(path, new IOException(e));
+		}
+	}
+
+	/**
+	 * Combines the given failures into one exception. A single failure is
+	 * returned as-is; otherwise, all of them are added as suppressed
+	 * exceptions.
+	 */
+	private static IOException aggregate(final String message, final Map<String, IOException> failures) {
+		if (failures.size() == 1) return failures.values().iterator().next();
+		final IOException result = new IOException(message + " " + String.join(", ", failures.keySet()));
+		for (final IOException e : failures.values()) {
+			result.addSuppressed(e);
+		}
+		return result;
+	}
+
+	/** The upload of a single file, see {@link #uploadAll(List, FileTask)}. */
+	interface FileTask {
+
+		/**
+		 * Fails if a lock was lost.
+		 */
+		void check() throws IOException;
+
+		/**
+		 * Prepares the upload in the calling thread, e.g. makes the target
+		 * directory.
+		 */
+		void prepare(Uploadable source) throws IOException;
+
+		/** Uploads the file; called by one of the upload threads. */
+		void upload(Uploadable source, ProgressReporter progress) throws IOException;
+	}
+
+	/**
+	 * Uploads the given files, using up to {@link #threads} concurrent PUTs.
+	 * <p>
+	 * Only the workers open source streams, so at most {@link #threads}
+	 * streams are open at any time. Target directories are created by the
+	 * calling thread before the respective upload is handed to the pool. The
+	 * first failure cancels all pending uploads and aborts those in flight;
+	 * this method only returns once no upload is in flight any more. The
+	 * progress is reported by a {@link ProgressReporter}.
+	 * </p>
+	 */
+	private void uploadAll(final List<Uploadable> sources, final FileTask task) throws IOException {
+		final ProgressReporter progress = new ProgressReporter();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new UploadThreadFactory());
+		final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+		int pending = 0;
+		boolean succeeded = false;
+		try {
+			for (final Uploadable source : sources) {
+				task.prepare(source);
+
+				completion.submit(() -> {
+					final AsyncUpload async = asyncUpload;
+					try {
+						task.upload(source, progress);
+					} catch (final Throwable t) {
+						if (async != null) async.failed(source, t);
+						throw t;
+					}
+					if (async != null) async.uploaded(source);
+					return null;
+				});
+				pending++;
+
+				// fail early if one of the previous uploads failed already
+				for (Future<Void> future = completion.poll(); future != null; future = completion.poll()) {
+					future.get();
+					pending--;
 				}
+				task.check();
 			}
+			while (pending > 0) {
+				// wake up regularly to notice lost locks
+				final Future<Void> future = completion.poll(1, TimeUnit.SECONDS);
+				task.check();
+				if (future != null) {
+					future.get();
+					pending--;
+				}
+			}
+			succeeded = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while uploading", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new IOException(cause);
+		} finally {
+			final Cancellation cancellation = this.cancellation;
+			if (!succeeded) {
+				// interrupts do not stop blocking socket writes, aborting the requests does
+				cancellation.cancel();
+				executor.shutdownNow();
+			} else {
+				executor.shutdown();
+			}
+			// do not release the locks while uploads are still in flight
+			awaitTermination(executor);
+			if (!succeeded && asyncUpload == null) {
+				// the next session of this uploader starts afresh
+				setCancellation(new Cancellation());
+			}
+			progress.close();
+		}
+	}
+
+	/**
+	 * Waits for the given executor to finish its tasks, without a time limit;
+	 * being interrupted does not stop the waiting, but is passed on.
+	 */
+	private static void awaitTermination(final ExecutorService executor) {
+		boolean interrupted = false;
+		for (;;) try {
+			if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+		} catch (InterruptedException e) {
+			interrupted = true;
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Makes sure that the directory of the given target exists. */
+	void makeParentDirectory(final String target) throws IOException {
+		int slash = target.lastIndexOf('/');
+		if (slash > 0 && ! ensureDirectoryExists(target.substring(0, slash + 1))) {
+			throw new IOException("Could not make subdirectory for " + target);
+		}
+	}
+
+	private void upload(final Uploadable source, final String token, final ProgressReporter progress) throws IOException {
+		progress.started(source);
+		if (skipUpload(source, token)) {
+			progress.skipped(source);
+			return;
+		}
+
+		upload(source, token, progress.createCallback(source));
+		uploaded(source, token);
+
+		progress.finished(source);
+	}
+
+	/**
+	 * Determines whether the server has the content of the given file at its
+	 * target already: because it is unchanged (see {@link #skipUnchanged}),
+	 * because an interrupted session uploaded it (see {@link #journal}), or
+	 * because it could be copied on the server (see {@link #deduplicate}).
+	 */
+	boolean skipUpload(final Uploadable source, final String token) throws IOException {
+		return skipUpload(source, token, new SourceDigest(source));
+	}
+
+	/**
+	 * Like {@link #skipUpload(Uploadable, String)}, but reads the local file
+	 * only if the given digest was not computed yet.
+	 */
+	boolean skipUpload(final Uploadable source, final String token, final SourceDigest digest) throws IOException {
+		// the content of locked files is specific to each session
+		if (token != null) return false;
+		final boolean unchanged = skipUnchanged && isUnchanged(source, digest);
+		if (unchanged || wasUploaded(source, digest)) {
+			log.info("Skipping " + (unchanged ? "unchanged " : "previously uploaded ") + source.getFilename());
+			return true;
+		}
+		return contentIndex != null && copyExisting(source, digest);
+	}
+
+	/** Records that the given file was uploaded successfully. */
+	void uploaded(final Uploadable source, final String token) {
+		final ContentDigest digest = uploadedDigests.get(source.getFilename());
+		if (journal != null && token == null) {
+			// the content of locked files is specific to each session
+			journal.put(source.getFilename(), source.getFilesize(), digest == null ? null : digest.getMD5Hex());
+		}
+		if (contentIndex != null && digest != null) {
+			contentIndex.add(source.getFilename(), digest);
+		}
+	}
+
+	/**
+	 * Reports the progress of the concurrent uploads of {@link #uploadAll}.
+	 * <p>
+	 * The upload threads only update lock-free counters and queue the files
+	 * they start and finish. A single reporter thread passes all that on to
+	 * the progress a few times per second, and formats the transfer rate, so
+	 * that a slow progress display does not hold up the uploads.
+	 * </p>
+	 */
+	private class ProgressReporter {
+
+		private static final long INTERVAL_MILLIS = 200;
+
+		private final AtomicLong count = new AtomicLong();
+		private final TransferRate rate = new TransferRate();
+		private final Queue<Uploadable> started = new ConcurrentLinkedQueue<>();
+		private final Queue<Uploadable> finished = new ConcurrentLinkedQueue<>();
+		private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "WebDAV-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		/** The file that made progress most recently. */
+		private volatile FileProgress latest;
+
+		private ProgressReporter() {
+			reporter.scheduleWithFixedDelay(this::report, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		void started(final Uploadable source) {
+			started.add(source);
+		}
+
+		void finished(final Uploadable source) {
+			finished.add(source);
+		}
+
+		/** Reports the given file as done without uploading it. */
+		void skipped(final Uploadable source) {
+			final FileProgress file = new FileProgress((int) source.getFilesize());
+			file.current.set(file.total);
+			rate.skip(file.total);
+			count.addAndGet(file.total);
+			latest = file;
+			finished.add(source);
+		}
+
+		ProgressHttpEntityWrapper.ProgressCallback createCallback(final Uploadable source) {
+			final FileProgress file = new FileProgress((int) source.getFilesize());
+			return progress -> {
+				final int current = (int) (file.total * progress);
+				count.addAndGet(current - file.current.getAndSet(current));
+				latest = file;
+			};
+		}
+
+		/** Called by the reporter thread, and once more by {@link #close()}. */
+		private void report() {
+			for (Uploadable source = started.poll(); source != null; source = started.poll()) {
+				addItem(source);
+			}
+			final FileProgress file = latest;
+			if (file != null) setItemCount(file.current.get(), file.total);
+			final long sum = count.get();
+			setCount((int) sum, total);
+			if (rate.update(sum)) {
+				setTitle("Uploading (" + rate.describe(total - sum) + ")");
+			}
+			for (Uploadable source = finished.poll(); source != null; source = finished.poll()) {
+				itemDone(source);
+			}
+		}
+
+		/** Stops the reporter thread, and reports the final state. */
+		void close() {
+			reporter.shutdownNow();
+			try {
+				reporter.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			report();
+		}
+	}
+
+	private static class FileProgress {
+		private final int total;
+		private final AtomicInteger current = new AtomicInteger();
+
+		private FileProgress(final int total) {
+			this.total = total;
+		}
+	}
+
+	/**
+	 * Copies a file with the same content on the server to the target of the
+	 * given file, instead of uploading it. The local file is only hashed if
+	 * the {@link #contentIndex} knows a remote file of the same size.
+	 * 
+	 * @return whether the server has the content at the target now
+	 */
+	private boolean copyExisting(final Uploadable source, final SourceDigest sourceDigest) throws IOException {
+		final ContentIndex index = contentIndex;
+		final String target = source.getFilename();
+		if (!index.hasCandidates(source.getFilesize())) return false;
+		final ContentDigest digest = sourceDigest.get();
+		final String existing = index.find(target, source.getFilesize(), digest.getMD5Hex(), digest.getSHA256Hex());
+		if (existing == null) return false;
+		if (existing.equals(target)) {
+			log.info("Skipping " + target + ", which is on the server already");
+		} else if (copy(existing, target)) {
+			log.info("Copied " + existing + " to " + target + " on the server instead of uploading it");
+			index.add(target, digest);
+		} else {
+			return false;
+		}
+		rememberDigest(source, digest);
+		if (journal != null) journal.put(target, source.getFilesize(), digest.getMD5Hex());
+		return true;
+	}
+
+	/**
+	 * Determines whether an interrupted earlier session uploaded the given
+	 * file completely already. This is the case if the journal records an
+	 * upload of the same size and MD5 digest, and the server still has a file
+	 * of that size.
+	 */
+	private boolean wasUploaded(final Uploadable source, final SourceDigest digest) throws IOException {
+		final UploadJournal journal = this.journal;
+		final UploadJournal.Upload upload = journal == null ? null : journal.getUpload(source.getFilename());
+		if (upload == null || upload.getMD5() == null || upload.getSize() != source.getFilesize()) {
+			return false;
+		}
+		return digest.get().getMD5Hex().equals(upload.getMD5()) && getRemoteSize(source.getFilename()) == upload.getSize();
+	}
+
+	private static int getDefaultThreads() {
+		final Integer threads = Integer.getInteger("webdav.threads");
+		return threads == null || threads < 1 ? 1 : threads;
+	}
+
+	private static class UploadThreadFactory implements ThreadFactory {
+		private static final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "WebDAV-upload-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 
 	boolean upload(Uploadable source, String token, ProgressHttpEntityWrapper.ProgressCallback progressCallback) throws IOException {
+		if (resumableThreshold > 0 && source.getFilesize() > resumableThreshold &&
+				!Boolean.FALSE.equals(rangedPutSupport.get(baseURL))) {
+			return uploadResumable(source, token, progressCallback);
+		}
+		return uploadWhole(source, token, progressCallback);
+	}
+
+	private boolean uploadWhole(Uploadable source, String token, ProgressHttpEntityWrapper.ProgressCallback progressCallback) throws IOException {
 
 		String target = source.getFilename();
 		URL url = getURL(target, false);
@@ -269,19 +1264,33 @@ public class WebDAVUploader extends AbstractUploader {
 			method.setHeader("If", "<" + url + "> (<" + token + ">)");
 		}
 
+		final boolean compress = isCompressing() &&
+			CompressingEntity.isCompressible(target, source.getFilesize()) && acceptsCompressedBodies();
+		final ContentDigest digest = verifyUploads ? new ContentDigest() : null;
 		HttpEntity entity;
-		if(source.getFilesize() > 0) {
-			entity = new InputStreamEntity(source.getInputStream(), source.getFilesize());
-			((InputStreamEntity)entity).setChunked(true);
+		if (digest != null && source.getFilesize() > 0 &&
+				source.getFilesize() <= Math.min(checksumHeaderLimit, Integer.MAX_VALUE - 8)) {
+			// the body is sent from memory, so the digest costs no second pass
+			final byte[] content = readFully(source);
+			digest.update(0, content, 0, content.length);
+			method.setHeader("OC-Checksum", "MD5:" + digest.getMD5Hex());
+			// Content-MD5 refers to the body as sent, i.e. after compression
+			if (!compress) method.setHeader("Content-MD5", digest.getContentMD5());
+			entity = new ByteArrayEntity(content);
+		} else if(source.getFilesize() > 0) {
+			// the size is known, so send a Content-Length rather than chunks
+			entity = new UploadableEntity(source, 0, source.getFilesize(), digest);
 		} else {
 			entity = new BufferedHttpEntity(new InputStreamEntity(source.getInputStream()));
 		}
 
 		if(progressCallback != null) {
-			method.setEntity(new ProgressHttpEntityWrapper(entity, progressCallback, source.getFilesize()));
-		} else {
-			method.setEntity(entity);
+			entity = new ProgressHttpEntityWrapper(entity, progressCallback, source.getFilesize());
 		}
+		if (compress) {
+			entity = new CompressingEntity(entity);
+		}
+		method.setEntity(bandwidthLimiter.wrap(entity, cancellation));
 
 		try {
 			HttpResponse response = runMethodOnClient(method, createStreamingUploadContext());
@@ -291,6 +1300,7 @@ public class WebDAVUploader extends AbstractUploader {
 				throw new IOException("Could not write " + target);
 			} else {
 				log.info("Successfully uploaded to " + target + "");
+				rememberDigest(source, digest);
 				return true;
 			}
 		} finally {
@@ -298,21 +1308,258 @@ public class WebDAVUploader extends AbstractUploader {
 		}
 	}
 
+	private static byte[] readFully(final Uploadable source) throws IOException {
+		final byte[] content = new byte[(int) source.getFilesize()];
+		try (InputStream in = source.getInputStream()) {
+			new DataInputStream(in).readFully(content);
+		}
+		return content;
+	}
+
+	/**
+	 * Uploads a file from an entity whose content is shared with the uploads
+	 * to the mirrors (see {@link MirroredUpload}). Unlike
+	 * {@link #uploadWhole}, the content is not compressed, and an entity that
+	 * cannot be repeated is not retried.
+	 * 
+	 * @param digest the digest of the content, complete already or updated
+	 *          while the content is read
+	 */
+	void uploadShared(final Uploadable source, final String token, final HttpEntity entity, final ContentDigest digest) throws IOException {
+		final String target = source.getFilename();
+		final URL url = getURL(target, false);
+		final HttpPut method = new HttpPut(url.toString());
+		if (token != null) {
+			method.setHeader("If", "<" + url + "> (<" + token + ">)");
+		}
+		if (verifyUploads && digest.isComplete(source.getFilesize())) {
+			method.setHeader("OC-Checksum", "MD5:" + digest.getMD5Hex());
+			method.setHeader("Content-MD5", digest.getContentMD5());
+		}
+		method.setEntity(bandwidthLimiter.wrap(entity, cancellation));
+
+		try {
+			final HttpResponse response = runMethodOnClient(method, createStreamingUploadContext());
+			final int code = response.getStatusLine().getStatusCode();
+			if (code != 201 && code != 204) {
+				throw new IOException("Could not write " + target + " to " + baseURL + ": " + response.getStatusLine());
+			}
+			log.info("Successfully uploaded to " + target + " at " + baseURL);
+			if (verifyUploads) rememberDigest(source, digest);
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * Uploads a large file in segments, resuming after failed segments.
+	 * <p>
+	 * The first segment is sent as a plain PUT, all others as PUTs with a
+	 * <code>Content-Range</code> header. Not all servers support such partial
+	 * PUTs; some even silently replace the file with the segment. Therefore
+	 * the remote size is verified after the first ranged PUT, and if the
+	 * server does not support them, the file is uploaded in one go instead
+	 * (and subsequent uploads to the same site do so right away).
+	 * </p>
+	 * <p>
+	 * When a segment fails, the server is asked how many bytes it has. If it
+	 * has the complete segment already, the upload continues with the next
+	 * one, otherwise the segment is sent again, up to
+	 * {@link #resumeAttempts} times in a row.
+	 * </p>
+	 */
+	private boolean uploadResumable(final Uploadable source, final String token, final ProgressHttpEntityWrapper.ProgressCallback progressCallback) throws IOException {
+		final String target = source.getFilename();
+		final long total = source.getFilesize();
+		final ContentDigest digest = verifyUploads ? new ContentDigest() : null;
+		long offset = 0;
+		int failures = 0;
+		while (offset < total) {
+			final long length = Math.min(segmentSize, total - offset);
+			final boolean success;
+			try {
+				success = putSegment(source, token, offset, length, digest, progressCallback);
+			} catch (IOException e) {
+				if (++failures > resumeAttempts) throw e;
+				final long remote = getRemoteSize(target);
+				if (remote == offset + length) {
+					log.warn("Lost the response for " + target + " at byte " + offset + ", but the server has the segment", e);
+					offset += length;
+				} else {
+					log.warn("Upload of " + target + " interrupted at byte " + offset + "; resuming", e);
+				}
+				continue;
+			}
+			if (!success) {
+				if (offset == 0) throw new IOException("Could not write " + target);
+				log.warn("The server refused a partial PUT; uploading " + target + " in one go");
+				rangedPutSupport.put(baseURL, false);
+				return uploadWhole(source, token, progressCallback);
+			}
+			if (offset > 0 && !Boolean.TRUE.equals(rangedPutSupport.get(baseURL))) {
+				final boolean supported = getRemoteSize(target) == offset + length;
+				rangedPutSupport.put(baseURL, supported);
+				if (!supported) {
+					log.warn("The server does not support partial PUTs; uploading " + target + " in one go");
+					return uploadWhole(source, token, progressCallback);
+				}
+			}
+			offset += length;
+			failures = 0;
+		}
+		log.info("Successfully uploaded to " + target + "");
+		rememberDigest(source, digest);
+		return true;
+	}
+
+	private boolean putSegment(final Uploadable source, final String token, final long offset, final long length,
+			final ContentDigest digest, final ProgressHttpEntityWrapper.ProgressCallback progressCallback) throws IOException {
+		final long total = source.getFilesize();
+		final URL url = getURL(source.getFilename(), false);
+		final HttpPut method = new HttpPut(url.toString());
+		if (token != null) {
+			method.setHeader("If", "<" + url + "> (<" + token + ">)");
+		}
+		if (offset > 0) {
+			method.setHeader("Content-Range", "bytes " + offset + "-" + (offset + length - 1) + "/" + total);
+		}
+
+		try {
+			HttpEntity entity = new UploadableEntity(source, offset, length, digest);
+			if (progressCallback != null) {
+				entity = new ProgressHttpEntityWrapper(entity,
+					progress -> progressCallback.progress((offset + progress * length) / total), length);
+			}
+			method.setEntity(bandwidthLimiter.wrap(entity, cancellation));
+
+			HttpResponse response = runMethodOnClient(method, createStreamingUploadContext());
+			int code = response.getStatusLine().getStatusCode();
+			if (code != 200 && code != 201 && code != 204) {
+				log.error("Code: " + code + " " + response.getStatusLine());
+				return false;
+			}
+			return true;
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * Asks the server for the size of the given file.
+	 * 
+	 * @return the size in bytes, or -1 if it could not be determined
+	 */
+	long getRemoteSize(final String path) throws IOException {
+		final HttpHead method = new HttpHead(getURL(path, false).toString());
+		try {
+			final HttpResponse response = runMethodOnClient(method);
+			final Header header = response.getFirstHeader("Content-Length");
+			if (response.getStatusLine().getStatusCode() != 200 || header == null) return -1;
+			return Long.parseLong(header.getValue().trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	private boolean isCompressing() {
+		return "true".equals(compress) || "always".equals(compress);
+	}
+
+	/**
+	 * Determines whether the server decodes compressed request bodies. While
+	 * that is not known yet, files are sent as-is.
+	 */
+	private boolean acceptsCompressedBodies() {
+		if ("always".equals(compress)) return true;
+		final CompletableFuture<Boolean> accepted = compressionSupport.get(baseURL);
+		return accepted != null && accepted.getNow(false);
+	}
+
+	/**
+	 * Finds out whether the server decodes compressed request bodies, unless
+	 * <code>webdav.compress</code> is set to <code>always</code>, or the
+	 * outcome is known for this base URL already.
+	 * <p>
+	 * The probe uploads compressed content to a lock file of this session,
+	 * and verifies that the server stored it uncompressed. Only this session
+	 * may write to the lock file, and its real content is uploaded later, so
+	 * the probe leaves nothing behind on the update site. Sessions without
+	 * such a lock file do not probe; they send all files as-is.
+	 * </p>
+	 */
+	private void probeCompression(final List<Uploadable> sources, final Map<String, String> tokens) {
+		if (!"true".equals(compress)) return;
+		String path = null;
+		for (final Uploadable source : sources) {
+			if (tokens.containsKey(source.getFilename())) {
+				path = source.getFilename();
+				break;
+			}
+		}
+		if (path == null) return;
+		final CompletableFuture<Boolean> probe = new CompletableFuture<>();
+		// other sessions uploading to the same site do not wait for the probe
+		if (compressionSupport.putIfAbsent(baseURL, probe) != null) return;
+		try {
+			final boolean accepted = probeCompression(path, tokens.get(path));
+			if (!accepted) {
+				log.info("The server does not decode compressed uploads; sending all files as-is");
+			}
+			probe.complete(accepted);
+		} catch (IOException e) {
+			log.warn("Could not find out whether the server decodes compressed uploads; sending all files as-is", e);
+			// try again in the next session
+			compressionSupport.remove(baseURL, probe);
+			probe.complete(false);
+		}
+	}
+
+	private boolean probeCompression(final String path, final String token) throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		while (builder.length() < 4096) {
+			builder.append("Does the WebDAV server decode compressed request bodies?\n");
+		}
+		final byte[] content = builder.toString().getBytes("UTF-8");
+		final URL url = getURL(path, false);
+		final HttpPut method = new HttpPut(url.toString());
+		method.setHeader("If", "<" + url + "> (<" + token + ">)");
+		method.setEntity(new CompressingEntity(new ByteArrayEntity(content)));
+		try {
+			final int code = runMethodOnClient(method).getStatusLine().getStatusCode();
+			if (code != 200 && code != 201 && code != 204) return false;
+		} finally {
+			method.releaseConnection();
+		}
+		return getRemoteSize(path) == content.length;
+	}
+
 	private HttpClientContext createStreamingUploadContext() {
 		final HttpClientContext context = createContext();
-		RequestConfig config = RequestConfig.custom().setExpectContinueEnabled(true).build();
+		RequestConfig config = RequestConfig.copy(ConnectionPool.getRequestConfig()).setExpectContinueEnabled(true).build();
 		context.setRequestConfig(config);
 		return context;
 	}
 
 	String lock(final String path) throws IOException {
+		return lock(path, null);
+	}
+
+	/**
+	 * Obtains a lock, and hands it to the given lock keeper (if any) to be
+	 * refreshed until the upload is done.
+	 */
+	private String lock(final String path, final LockKeeper lockKeeper) throws IOException {
 		HttpLock method = new HttpLock(getURL(path, false).toString(),
-				new LockInfo(Scope.EXCLUSIVE, Type.WRITE, username, 600*1000, false));
+				new LockInfo(Scope.EXCLUSIVE, Type.WRITE, username, lockTimeout, false));
 		boolean success;
 		HttpResponse response;
+		long grantedTimeout = lockTimeout;
 		try {
 			response = runMethodOnClient(method);
 			success = method.succeeded(response);
+			if (success) grantedTimeout = getGrantedTimeout(method, response);
 		} finally {
 			method.releaseConnection();
 		}
@@ -321,15 +1568,7 @@ public class WebDAVUploader extends AbstractUploader {
 		else {
 			log.info("Successfully locked " + path + ".");
 		}
-		if (timestamp < 0) {
-			Date date = DateUtils.parseDate(response.getFirstHeader("Date").getValue());
-			Calendar cal = Calendar.getInstance();
-			cal.setTime(date);
-			timestamp = Long.parseLong(UpdaterUtil.timestamp(cal));
-			if (timestamp < 0) {
-				throw new IOException("Could not obtain date from the server");
-			}
-		}
+		updateTimestamp(response);
 
 		final String token = method.getLockToken(response);
 		if (debug) {
@@ -339,15 +1578,85 @@ public class WebDAVUploader extends AbstractUploader {
 			log.error("Expected lock for '" + path + "', got:\n" + response.getEntity().getContent().toString());
 			throw new IOException("Could not obtain lock for " + path);
 		}
+		if (journal != null) {
+			journal.lock(path, token);
+		}
+		if (lockKeeper != null) {
+			lockKeeper.keep(path, token, grantedTimeout);
+		}
 		return token;
 	}
 
+	/**
+	 * Sets the {@link #timestamp} of the upload from the server's response to
+	 * the first lock request, unless it is set already.
+	 */
+	private void updateTimestamp(final HttpResponse response) throws IOException {
+		synchronized (timestampLock) {
+			if (timestamp < 0) {
+				Date date = DateUtils.parseDate(response.getFirstHeader("Date").getValue());
+				Calendar cal = Calendar.getInstance();
+				cal.setTime(date);
+				timestamp = Long.parseLong(UpdaterUtil.timestamp(cal));
+				if (timestamp < 0) {
+					throw new IOException("Could not obtain date from the server");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Refreshes a lock, i.e. resets its timeout.
+	 * 
+	 * @return the timeout granted by the server, in milliseconds
+	 */
+	long refreshLock(final String path, final String token) throws IOException {
+		final HttpLock method = new HttpLock(getURL(path, false).toString(), lockTimeout, new String[] { token });
+		try {
+			final HttpResponse response = runMethodOnClient(method);
+			if (!method.succeeded(response)) {
+				throw new IOException("Could not refresh the lock for " + path + ": " + response.getStatusLine());
+			}
+			log.debug("Refreshed the lock for " + path);
+			// a reused lock of an interrupted session is the first of the upload
+			updateTimestamp(response);
+			return getGrantedTimeout(method, response);
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * Returns the lock timeout from the server's LOCK response, which may
+	 * differ from the requested one. Falls back to the requested timeout.
+	 */
+	private long getGrantedTimeout(final HttpLock method, final HttpResponse response) {
+		try {
+			final LockDiscovery discovery = method.getResponseBodyAsLockDiscovery(response);
+			if (discovery != null) {
+				for (final ActiveLock lock : discovery.getValue()) {
+					if (lock.getTimeout() > 0) return lock.getTimeout();
+				}
+			}
+		} catch (Exception e) {
+			log.debug("Could not determine the granted lock timeout", e);
+		}
+		return lockTimeout;
+	}
+
 	boolean unlock(final String path, final String token) throws IOException {
 		HttpUnlock method = new HttpUnlock(getURL(path, false).toString(), token);
+		final HttpClientContext context = createContext();
 		boolean success;
 		try {
-			HttpResponse response = runMethodOnClient(method);
-			if (success = method.succeeded(response)) {
+			HttpResponse response = runMethodOnClient(method, context);
+			success = method.succeeded(response);
+			if (!success && wasRetried(context)) {
+				// an earlier attempt might have removed the lock already
+				final int code = response.getStatusLine().getStatusCode();
+				success = code == 409 || code == 412;
+			}
+			if (success) {
 				log.info("Successfully unlocked " + path + ".");
 			}
 			else {
@@ -382,11 +1691,28 @@ public class WebDAVUploader extends AbstractUploader {
 		return success;
 	}
 
+	/**
+	 * Copies a file on the server, overwriting the target, if any.
+	 * 
+	 * @return whether the copy succeeded
+	 */
+	boolean copy(final String source, final String target) throws IOException {
+		final HttpCopy method = new HttpCopy(getURL(source, false).toString(), getURL(target, false).toString(), true, false);
+		try {
+			final HttpResponse response = runMethodOnClient(method);
+			if (method.succeeded(response)) return true;
+			log.warn("Could not copy " + source + " to " + target + ": " + response.getStatusLine());
+			return false;
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
 	boolean ensureDirectoryExists(final String path) throws IOException {
 		if (existingDirectories.contains(path)) {
 			return true;
 		}
-		try {
+		if (!directoriesPrefetched) try {
 			if (directoryExists(path)) {
 				existingDirectories.add(path);
 				return true;
@@ -402,9 +1728,262 @@ public class WebDAVUploader extends AbstractUploader {
 			existingDirectories.add(path);
 			return true;
 		}
+		if (directoriesPrefetched) try {
+			// somebody else might have created it since we listed the directories
+			if (directoryExists(path)) {
+				existingDirectories.add(path);
+				return true;
+			}
+		} catch (UnauthenticatedException e) {
+			log.error("Could not check if directory " + path + " exists. The given user is unauthorized or the given password is incorrect.");
+		}
+		return false;
+	}
+
+	/**
+	 * Learns which of the directories needed by the given files exist already
+	 * and, if {@link #skipUnchanged} or {@link #deduplicate} is set, the size
+	 * and ETag (and checksums, if the server reports them) of the files
+	 * already on the server.
+	 * <p>
+	 * First tries a single Depth: infinity PROPFIND; many servers refuse those,
+	 * in which case the needed part of the tree is listed level by level using
+	 * Depth: 1. Only the required properties are requested. If listing fails,
+	 * the directories are checked one by one as before, and all files are
+	 * uploaded.
+	 * </p>
+	 */
+	void prefetchRemoteTree(final List<Uploadable> sources) {
+		directoriesPrefetched = false;
+		remoteFiles = Collections.emptyMap();
+		contentIndex = null;
+		final boolean listFiles = skipUnchanged || deduplicate;
+		final Set<String> needed = new HashSet<>();
+		for (final Uploadable source : sources) {
+			final String target = source.getFilename();
+			for (int slash = target.indexOf('/'); slash > 0; slash = target.indexOf('/', slash + 1)) {
+				needed.add(target.substring(0, slash + 1));
+			}
+		}
+		if (!listFiles && (needed.isEmpty() || needed.stream().allMatch(existingDirectories::contains))) {
+			return;
+		}
+		final DavPropertyNameSet names = new DavPropertyNameSet();
+		names.add(DavPropertyName.RESOURCETYPE);
+		if (listFiles) {
+			names.add(DavPropertyName.GETCONTENTLENGTH);
+			names.add(DavPropertyName.GETETAG);
+		}
+		if (deduplicate) {
+			names.add(RemoteResource.CHECKSUMS);
+		}
+		try {
+			final Set<String> found = new HashSet<>();
+			final Map<String, RemoteResource> files = new HashMap<>();
+			if (!listResources("", DavConstants.DEPTH_INFINITY, names, found, files)) {
+				found.clear();
+				files.clear();
+				final Deque<String> queue = new ArrayDeque<>();
+				queue.add("");
+				while (!queue.isEmpty()) {
+					final String directory = queue.remove();
+					final Set<String> children = new HashSet<>();
+					if (!listResources(directory, DavConstants.DEPTH_1, names, children, files)) {
+						log.warn("Could not list " + directory + "; checking directories one by one");
+						return;
+					}
+					for (final String child : children) {
+						// to learn about the files, we need to list the target directories, too
+						if (found.add(child) && (listFiles ? needed.contains(child) : needsSubdirectoriesOf(child, needed))) {
+							queue.add(child);
+						}
+					}
+				}
+			}
+			existingDirectories.addAll(found);
+			directoriesPrefetched = true;
+			remoteFiles = files;
+			if (deduplicate) contentIndex = new ContentIndex(files);
+			log.info("Found " + found.size() + " existing directories and " + files.size() + " files.");
+		} catch (IOException e) {
+			log.warn("Could not list the existing directories; checking them one by one", e);
+		}
+	}
+
+	private static boolean needsSubdirectoriesOf(final String directory, final Set<String> needed) {
+		for (final String path : needed) {
+			if (path.length() > directory.length() && path.startsWith(directory)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lists the resources at or below the given path (up to the given depth),
+	 * excluding the path itself.
+	 * 
+	 * @param collections the set to which the collections are added
+	 * @param files the map to which the other resources are added
+	 * @return false if the server does not answer with a multi-status
+	 */
+	private boolean listResources(final String path, final int depth, final DavPropertyNameSet names,
+			final Set<String> collections, final Map<String, RemoteResource> files) throws IOException {
+		final HttpPropfind method = new HttpPropfind(getURL(path, true).toString(), names, depth);
+		try {
+			final HttpResponse response = runMethodOnClient(method);
+			if (response.getStatusLine().getStatusCode() != HttpStatus.SC_MULTI_STATUS) {
+				return false;
+			}
+			for (final MultiStatusResponse entry : method.getResponseBodyAsMultiStatus(response).getResponses()) {
+				final DavPropertySet properties = entry.getProperties(HttpStatus.SC_OK);
+				if (properties == null) continue;
+				final String relative = getRelativePath(entry.getHref());
+				if (relative == null) return false;
+				if (isCollection(properties.get(DavPropertyName.RESOURCETYPE))) {
+					if (relative.isEmpty() || relative.equals(path)) continue;
+					collections.add(relative.endsWith("/") ? relative : relative + "/");
+				} else {
+					files.put(relative, RemoteResource.fromProperties(properties));
+				}
+			}
+			return true;
+		} catch (DavException e) {
+			throw new IOException(e);
+		} finally {
+			method.releaseConnection();
+		}
+	}
+
+	private void rememberDigest(final Uploadable source, final ContentDigest digest) {
+		// a resumed upload may have skipped a segment the server had already
+		if (digest != null && digest.isComplete(source.getFilesize())) {
+			uploadedDigests.put(source.getFilename(), digest);
+		}
+	}
+
+	/**
+	 * Verifies that the server stored exactly the bytes that were sent,
+	 * listing each target directory once (Depth: 1).
+	 * <p>
+	 * The sizes must match. If the server reports ownCloud-style checksums,
+	 * or if its ETags are MD5 or SHA-256 digests of the content (as is the
+	 * case for many servers), the digests must match, too. For other servers,
+	 * only the sizes can be verified. Files that cannot be listed are not
+	 * verified.
+	 * </p>
+	 */
+	private void verifyUploads() throws IOException {
+		if (uploadedDigests.isEmpty()) return;
+		final Map<String, List<String>> directories = new TreeMap<>();
+		for (final String path : uploadedDigests.keySet()) {
+			final String directory = path.substring(0, path.lastIndexOf('/') + 1);
+			directories.computeIfAbsent(directory, key -> new ArrayList<>()).add(path);
+		}
+		final DavPropertyNameSet names = new DavPropertyNameSet();
+		names.add(DavPropertyName.RESOURCETYPE);
+		names.add(DavPropertyName.GETCONTENTLENGTH);
+		names.add(DavPropertyName.GETETAG);
+		names.add(RemoteResource.CHECKSUMS);
+
+		final List<String> mismatches = new ArrayList<>();
+		int bySize = 0, byChecksum = 0;
+		for (final Map.Entry<String, List<String>> entry : directories.entrySet()) {
+			final Map<String, RemoteResource> files = new HashMap<>();
+			try {
+				if (!listResources(entry.getKey(), DavConstants.DEPTH_1, names, new HashSet<>(), files)) {
+					log.warn("Could not list " + entry.getKey() + " to verify the uploads");
+					continue;
+				}
+			} catch (IOException e) {
+				log.warn("Could not list " + entry.getKey() + " to verify the uploads", e);
+				continue;
+			}
+			for (final String path : entry.getValue()) {
+				final RemoteResource remote = files.get(path);
+				if (remote == null) {
+					log.warn("Could not verify " + path + ": not listed by the server");
+					continue;
+				}
+				switch (verify(uploadedDigests.get(path), remote)) {
+					case CHECKSUM_MATCHES: byChecksum++; break;
+					case SIZE_MATCHES: bySize++; break;
+					default: mismatches.add(path);
+				}
+			}
+		}
+		if (!mismatches.isEmpty()) {
+			throw new IOException("The server did not store the uploaded content of " + String.join(", ", mismatches));
+		}
+		log.info("Verified " + byChecksum + " uploaded files by checksum and " + bySize + " by size.");
+	}
+
+	private static final int MISMATCH = 0, SIZE_MATCHES = 1, CHECKSUM_MATCHES = 2;
+
+	private static int verify(final ContentDigest digest, final RemoteResource remote) {
+		if (remote.getSize() >= 0 && remote.getSize() != digest.getLength()) return MISMATCH;
+		final String md5 = remote.getChecksum("MD5");
+		if (md5 != null) return md5.equals(digest.getMD5Hex()) ? CHECKSUM_MATCHES : MISMATCH;
+		final String sha256 = remote.getChecksum("SHA256");
+		if (sha256 != null) return sha256.equals(digest.getSHA256Hex()) ? CHECKSUM_MATCHES : MISMATCH;
+		final String etag = remote.getETag() == null ? null : remote.getETag().toLowerCase();
+		if (digest.getMD5Hex().equals(etag) || digest.getSHA256Hex().equals(etag)) return CHECKSUM_MATCHES;
+		// most ETags are not content digests, so a differing ETag proves nothing
+		return SIZE_MATCHES;
+	}
+
+	/**
+	 * Determines whether the server already has a byte-identical copy of the
+	 * given file.
+	 * <p>
+	 * The local file is only hashed if the remote size matches. The content
+	 * is considered identical if the ETag is the MD5 or SHA-256 digest of the
+	 * local file, as is the case for many servers; ETags that are not content
+	 * digests never match, so those files are always uploaded.
+	 * </p>
+	 */
+	boolean isUnchanged(final Uploadable source, final SourceDigest digest) throws IOException {
+		final RemoteResource remote = remoteFiles.get(source.getFilename());
+		if (remote == null || remote.getSize() != source.getFilesize() || remote.getETag() == null) {
+			return false;
+		}
+		final String etag = remote.getETag().toLowerCase();
+		return etag.equals(digest.get().getMD5Hex()) || etag.equals(digest.get().getSHA256Hex());
+	}
+
+	private static boolean isCollection(final DavProperty<?> resourceType) {
+		return resourceType != null && isCollection(resourceType.getValue());
+	}
+
+	private static boolean isCollection(final Object value) {
+		if (value instanceof Element) {
+			return "collection".equals(((Element) value).getLocalName());
+		}
+		if (value instanceof Collection) {
+			for (final Object item : (Collection<?>) value) {
+				if (isCollection(item)) return true;
+			}
+		}
 		return false;
 	}
 
+	/**
+	 * Converts an <code>href</code> of a multi-status response into a path
+	 * relative to the base URL.
+	 * 
+	 * @return the decoded relative path, or null if it is outside the base URL
+	 */
+	String getRelativePath(final String href) {
+		try {
+			final String path = new URI(href).getPath();
+			final String basePath = new URL(baseURL).toURI().getPath();
+			if (path == null || !path.startsWith(basePath)) return null;
+			return path.substring(basePath.length());
+		} catch (URISyntaxException | MalformedURLException e) {
+			return null;
+		}
+	}
+
 	boolean directoryExists(final String path) throws IOException, UnauthenticatedException {
 		HttpPropfind method = new HttpPropfind(getURL(path, true).toString(),
 				DavConstants.PROPFIND_ALL_PROP, 0);
@@ -451,10 +2030,15 @@ public class WebDAVUploader extends AbstractUploader {
 
 	boolean makeDirectory(final String path) throws IOException {
 		HttpMkcol method = new HttpMkcol(getURL(path, true).toString());
+		final HttpClientContext context = createContext();
 		boolean success;
 		try {
-			HttpResponse response = runMethodOnClient(method);
+			HttpResponse response = runMethodOnClient(method, context);
 			success = method.succeeded(response);
+			if (!success && wasRetried(context)) {
+				// an earlier attempt might have made the directory already
+				success = response.getStatusLine().getStatusCode() == 405;
+			}
 		} finally {
 			method.releaseConnection();
 		}
@@ -505,7 +2089,8 @@ public class WebDAVUploader extends AbstractUploader {
 	private HttpClientContext createContext() {
 		final HttpClientContext context = HttpClientContext.create();
 		context.setCredentialsProvider(provider);
-		RequestConfig config = RequestConfig.custom().setExpectContinueEnabled(true).build();
+		context.setAuthCache(authCache);
+		RequestConfig config = RequestConfig.copy(ConnectionPool.getRequestConfig()).setExpectContinueEnabled(true).build();
 		context.setRequestConfig(config);
 		return context;
 	}
@@ -516,26 +2101,74 @@ public class WebDAVUploader extends AbstractUploader {
 
 	HttpResponse runMethodOnClient(HttpUriRequest method, HttpContext context) throws IOException {
 		method.setHeader("User-Agent", "Java/" + System.getProperty("java.version"));
-		if (debug) {
-			log.debug("Sending request " + method);
-			for (Header header : method.getAllHeaders()) {
-				log.debug("Header: " + header.getName() + " = " + header.getValue());
-			}
-		}
-		HttpResponse response = client.execute(method, context);
-		if (debug) {
-			log.debug("Response: " + response.getStatusLine().getStatusCode() + " " + response.getStatusLine());
-			for (Header header : response.getAllHeaders()) {
-				log.debug("Header: " + header.getName() + " = " + header.getValue());
+		// releasing the locks must not be cancelled
+		final Cancellation cancellation = "UNLOCK".equals(method.getMethod()) ? null : this.cancellation;
+		HttpResponse response;
+		for (int retries = 0; ; retries++) {
+			final long start = System.nanoTime();
+			try {
+				if (cancellation != null) cancellation.register(method);
+				try {
+					response = transport.execute(method, context);
+				} finally {
+					if (cancellation != null) cancellation.unregister(method);
+				}
+				trace.record(method, retries, start, response, null);
+			} catch (IOException e) {
+				trace.record(method, retries, start, null, e);
+				if (!retryPolicy.shouldRetry(method, e, retries)) throw e;
+				log.warn("Retrying " + method.getMethod() + " " + method.getURI() + " after " + e);
+				backOff(method, retries, null, context, cancellation);
+				continue;
 			}
+			if (!retryPolicy.shouldRetry(method, response, retries)) break;
+			log.warn("Retrying " + method.getMethod() + " " + method.getURI() + " after " + response.getStatusLine());
+			EntityUtils.consumeQuietly(response.getEntity());
+			backOff(method, retries, response, context, cancellation);
 		}
 		return response;
 	}
 
-	private URL getURL(final String path, boolean isDirectory) throws MalformedURLException, UnsupportedEncodingException {
-		final String url = baseURL + URLEncoder.encode(path, "UTF-8").replaceAll("%2F", "/").replaceAll("\\+","%20");
-		if (!isDirectory || "".equals(path) || path.endsWith("/")) return new URL(url);
-		return new URL(url + "/");
+	/**
+	 * Waits before retrying the given request.
+	 * 
+	 * @param cancellation the session that cuts the wait short when it is
+	 *          cancelled, or null for requests that must not be cancelled
+	 */
+	private void backOff(final HttpUriRequest method, final int retries, final HttpResponse response,
+			final HttpContext context, final Cancellation cancellation) throws IOException {
+		context.setAttribute(RetryPolicy.RETRIES, retries + 1);
+		UploadMetrics.getInstance().recordRetry();
+		final long delay = retryPolicy.getDelay(retries, response);
+		if (cancellation != null) {
+			cancellation.sleep(method, delay);
+		} else try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry " + method.getMethod() + " " + method.getURI());
+		}
+		if (method instanceof HttpRequestBase) {
+			((HttpRequestBase) method).reset();
+		}
+	}
+
+	private static boolean wasRetried(final HttpContext context) {
+		return context.getAttribute(RetryPolicy.RETRIES) != null;
+	}
+
+	URL getURL(final String path, boolean isDirectory) throws MalformedURLException {
+		final PathEncoder.Cache<URL> cache = isDirectory ? directoryURLs : fileURLs;
+		synchronized (cache) {
+			URL url = cache.get(path);
+			if (url == null) {
+				final String encoded = baseURL + PathEncoder.encode(path);
+				if (!isDirectory || "".equals(path) || path.endsWith("/")) url = new URL(encoded);
+				else url = new URL(encoded + "/");
+				cache.put(path, url);
+			}
+			return url;
+		}
 	}
 
 	void setCredentials(final String username, final String password) {
@@ -543,15 +2176,60 @@ public class WebDAVUploader extends AbstractUploader {
 		this.password = password;
 		if (log == null) {
 			log = new StderrLogService();
-			log.setLevel(LogLevel.DEBUG);
-			debug = true;
 		}
 		provider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+		authCache.clear();
+		transport.resetAuthentication();
+		validated = false;
+		for (final WebDAVUploader mirror : mirrors) {
+			mirror.setCredentials(username, password);
+		}
+	}
+
+	/**
+	 * Limits the upload bandwidth of this uploader, independently of the
+	 * JVM-wide <code>webdav.bandwidth</code> setting. Takes effect immediately,
+	 * also for uploads in progress.
+	 * 
+	 * @param bytesPerSecond the limit; 0 or less means no limit
+	 */
+	void setBandwidthLimit(final long bytesPerSecond) {
+		if (siteBandwidthLimiter == null) {
+			siteBandwidthLimiter = new BandwidthLimiter(bytesPerSecond);
+		} else {
+			siteBandwidthLimiter.setRate(bytesPerSecond);
+		}
+		bandwidthLimiter = siteBandwidthLimiter;
+	}
+
+	private static Transport createTransport() {
+		final Transport transport = AsyncTransport.create();
+		if (transport != null) return transport;
+		return (request, context) -> client.execute(request, context);
+	}
+
+	void setTransport(final Transport transport) {
+		this.transport = transport;
+	}
+
+	String getBaseUrl() {
+		return baseURL;
+	}
+
+	LogService getLog() {
+		return log;
 	}
 
 	void setBaseUrl(String url) {
+		validated = false;
 		baseURL = url;
 		if (!baseURL.endsWith("/")) baseURL += "/";
+		synchronized (fileURLs) {
+			fileURLs.clear();
+		}
+		synchronized (directoryURLs) {
+			directoryURLs.clear();
+		}
 	}
 
 }
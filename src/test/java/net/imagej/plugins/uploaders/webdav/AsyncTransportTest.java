@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.updater.Uploadable;
+import net.imagej.updater.UploadableFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link AsyncTransport} against the in-process
+ * {@link WebDAVTestServer}.
+ */
+public class AsyncTransportTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WebDAVTestServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new WebDAVTestServer("user", "secret");
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testUploadWithLock() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		assertTrue(uploader.directoryExists(""));
+		assertFalse(uploader.directoryExists("jars/"));
+
+		final byte[] db = randomBytes(1000);
+		// larger than the buffer between the entity writer and the I/O reactor
+		final byte[] jar = randomBytes(1024 * 1024 + 17);
+		final List<Uploadable> sources = Arrays.asList(
+			createUploadable("db.xml.gz.lock", db),
+			createUploadable("jars/deep/nested/Some Plugin.jar-20230101120000", jar));
+		uploader.upload(sources, Collections.singletonList("db.xml.gz"));
+
+		assertArrayEquals(db, server.getFile("db.xml.gz"));
+		assertArrayEquals(jar, server.getFile("jars/deep/nested/Some Plugin.jar-20230101120000"));
+		assertTrue(server.isDirectory("jars/deep/nested/"));
+		assertNull(server.getFile("db.xml.gz.lock"));
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+	}
+
+	@Test
+	public void testWrongCredentials() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		uploader.setCredentials("user", "wrong");
+		try {
+			uploader.directoryExists("");
+			fail("Authenticated with the wrong password");
+		} catch (WebDAVUploader.UnauthenticatedException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testNewCredentialsResetAuthCache() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		assertTrue(uploader.directoryExists(""));
+		uploader.setCredentials("user", "wrong");
+		try {
+			uploader.directoryExists("");
+			fail("Authenticated with the scheme cached for the previous password");
+		} catch (WebDAVUploader.UnauthenticatedException e) {
+			// expected
+		}
+		uploader.setCredentials("user", "secret");
+		assertTrue(uploader.directoryExists(""));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		server.setDelay("PUT", 10000);
+		final AsyncUpload upload = uploader.uploadAsync(Arrays.asList(
+			createUploadable("db.xml.gz.lock", randomBytes(100)),
+			createUploadable("jars/slow.jar-20230101120000", randomBytes(3000))), Collections.singletonList("db.xml.gz"));
+		final long timeout = System.currentTimeMillis() + 10000;
+		while (server.getMaxConcurrentRequests("PUT") == 0) {
+			assertTrue("No PUT arrived", System.currentTimeMillis() < timeout);
+			Thread.sleep(5);
+		}
+
+		// aborting the request cancels the exchange without waiting for the response
+		final long start = System.nanoTime();
+		upload.cancel().get(10, TimeUnit.SECONDS);
+		assertTrue(upload.getSession().isCancelled());
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+		assertNull(server.getFile("db.xml.gz"));
+	}
+
+	private WebDAVUploader createUploader() throws IOException {
+		final WebDAVUploader uploader = new WebDAVUploader();
+		uploader.setBaseUrl(server.getURL());
+		uploader.setCredentials("user", "secret");
+		uploader.setTransport(new AsyncTransport(false));
+		return uploader;
+	}
+
+	private Uploadable createUploadable(final String target, final byte[] content) throws IOException {
+		final File file = folder.newFile();
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(content);
+		}
+		return new UploadableFile(file, target);
+	}
+
+	private static byte[] randomBytes(final int size) {
+		final byte[] result = new byte[size];
+		new Random(size).nextBytes(result);
+		return result;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.updater.Uploadable;
+import net.imagej.updater.UploadableFile;
+
+import org.apache.http.client.methods.HttpPut;
+import org.junit.Test;
+
+/**
+ * Tests the futures of {@link AsyncUpload} and the {@link Cancellation} of
+ * the session.
+ */
+public class AsyncUploadTest {
+
+	private final Uploadable a = new UploadableFile(new File("a.jar"), "jars/a.jar");
+	private final Uploadable b = new UploadableFile(new File("b.jar"), "jars/b.jar");
+
+	@Test
+	public void testCompletion() throws Exception {
+		final AsyncUpload upload = new AsyncUpload(Arrays.asList(a, b));
+		upload.run(() -> {
+			upload.uploaded(a);
+			assertTrue(upload.getFile("jars/a.jar").isDone());
+			assertFalse(upload.getFile("jars/b.jar").isDone());
+			assertFalse(upload.getSession().isDone());
+		});
+		assertTrue(upload.getSession().isDone());
+		assertFalse(upload.getSession().isCompletedExceptionally());
+		assertTrue(upload.getFile("jars/b.jar").isDone());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final AsyncUpload upload = new AsyncUpload(Arrays.asList(a, b));
+		upload.run(() -> {
+			upload.uploaded(a);
+			throw new IOException("507 Insufficient Storage");
+		});
+		assertTrue(upload.getSession().isCompletedExceptionally());
+		assertFalse(upload.getFile("jars/a.jar").isCompletedExceptionally());
+		assertTrue(upload.getFile("jars/b.jar").isCompletedExceptionally());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final AsyncUpload upload = new AsyncUpload(Arrays.asList(a, b));
+		final Cancellation cancellation = upload.getCancellation();
+		final HttpPut put = new HttpPut("http://localhost/jars/a.jar");
+		cancellation.register(put);
+		upload.getSession().cancel(true);
+		assertTrue(cancellation.isCancelled());
+		assertTrue(put.isAborted());
+
+		try {
+			cancellation.register(new HttpPut("http://localhost/jars/b.jar"));
+			fail("A request was sent after the cancellation");
+		} catch (InterruptedIOException e) {
+			// expected
+		}
+		final long start = System.nanoTime();
+		try {
+			cancellation.sleep(put, 60000);
+			fail("The back-off was not cancelled");
+		} catch (InterruptedIOException e) {
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+		}
+
+		final CountDownLatch released = new CountDownLatch(1);
+		upload.run(released::countDown);
+		assertTrue(upload.cancel().isDone());
+		assertEquals(0, released.getCount());
+		assertTrue(upload.getFile("jars/b.jar").isCancelled());
+	}
+}
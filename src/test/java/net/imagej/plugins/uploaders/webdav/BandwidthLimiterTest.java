@@ -0,0 +1,144 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+/**
+ * Tests the token bucket of {@link BandwidthLimiter}.
+ */
+public class BandwidthLimiterTest {
+
+	@Test
+	public void testThrottling() throws IOException {
+		final BandwidthLimiter limiter = new BandwidthLimiter(1000 * 1000);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final long start = System.nanoTime();
+		limiter.wrap(new ByteArrayEntity(new byte[1000 * 1000])).writeTo(out);
+		final long millis = (System.nanoTime() - start) / 1000 / 1000;
+		assertEquals(1000 * 1000, out.size());
+		// the bucket starts empty, so it must take about a second
+		assertTrue("took only " + millis + "ms", millis >= 800);
+	}
+
+	@Test
+	public void testUnlimited() throws IOException {
+		final BandwidthLimiter limiter = new BandwidthLimiter(1);
+		limiter.setRate(0);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final long start = System.nanoTime();
+		limiter.wrap(new ByteArrayEntity(new byte[10 * 1000 * 1000])).writeTo(out);
+		assertEquals(10 * 1000 * 1000, out.size());
+		assertTrue(System.nanoTime() - start < 5000L * 1000 * 1000);
+	}
+
+	@Test
+	public void testCancelWakesUpWaitingWrite() throws Exception {
+		// a single chunk takes minutes at this rate
+		final BandwidthLimiter limiter = new BandwidthLimiter(100);
+		final Cancellation cancellation = new Cancellation();
+		final AtomicReference<IOException> failure = new AtomicReference<>();
+		final Thread writer = new Thread(() -> {
+			try {
+				limiter.wrap(new ByteArrayEntity(new byte[100 * 1000]), cancellation).writeTo(new ByteArrayOutputStream());
+			} catch (IOException e) {
+				failure.set(e);
+			}
+		});
+		writer.start();
+		Thread.sleep(200);
+		assertTrue(writer.isAlive());
+
+		cancellation.cancel();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertTrue(failure.get() instanceof InterruptedIOException);
+	}
+
+	@Test
+	public void testCancelWakesUpAllWritesSharingALimiter() throws Exception {
+		final BandwidthLimiter limiter = new BandwidthLimiter(100);
+		final Cancellation cancellation = new Cancellation();
+		final List<Thread> writers = new ArrayList<>();
+		final List<IOException> failures = new ArrayList<>();
+		final ByteArrayOutputStream small = new ByteArrayOutputStream();
+		// the small writes come and go while the large ones keep waiting
+		writers.add(new Thread(() -> {
+			try {
+				for (;;) {
+					limiter.wrap(new ByteArrayEntity(new byte[10]), cancellation).writeTo(small);
+				}
+			} catch (IOException e) {
+				synchronized (failures) {
+					failures.add(e);
+				}
+			}
+		}));
+		for (int i = 0; i < 3; i++) {
+			writers.add(new Thread(() -> {
+				try {
+					limiter.wrap(new ByteArrayEntity(new byte[100 * 1000]), cancellation).writeTo(new ByteArrayOutputStream());
+				} catch (IOException e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			}));
+		}
+		for (final Thread writer : writers) writer.start();
+		Thread.sleep(500);
+		assertTrue(small.size() > 0);
+
+		cancellation.cancel();
+		for (final Thread writer : writers) {
+			writer.join(5000);
+			assertFalse(writer.isAlive());
+		}
+		assertEquals(writers.size(), failures.size());
+		for (final IOException failure : failures) {
+			assertTrue(failure instanceof InterruptedIOException);
+		}
+	}
+}
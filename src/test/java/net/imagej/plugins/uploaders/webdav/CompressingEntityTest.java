@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+/**
+ * Tests {@link CompressingEntity}.
+ */
+public class CompressingEntityTest {
+
+	@Test
+	public void testIsCompressible() {
+		assertTrue(CompressingEntity.isCompressible("macros/tools.ijm", 2000));
+		assertTrue(CompressingEntity.isCompressible("luts/Fire.LUT", 2000));
+		assertFalse(CompressingEntity.isCompressible("jars/plugin.jar", 2000));
+		assertFalse(CompressingEntity.isCompressible("macros/tiny.ijm", 10));
+		assertFalse(CompressingEntity.isCompressible("scripts.txt/README", 2000));
+	}
+
+	@Test
+	public void testWriteTo() throws IOException {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			builder.append("line ").append(i).append('\n');
+		}
+		final byte[] content = builder.toString().getBytes(StandardCharsets.UTF_8);
+		final CompressingEntity entity = new CompressingEntity(new ByteArrayEntity(content));
+		assertEquals("gzip", entity.getContentEncoding().getValue());
+		assertEquals(-1, entity.getContentLength());
+		assertTrue(entity.isChunked());
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+		assertTrue(out.size() < content.length / 2);
+		assertArrayEquals(content, gunzip(out.toByteArray()));
+		// the entity can be written again, e.g. when the request is retried
+		out.reset();
+		entity.writeTo(out);
+		assertArrayEquals(content, gunzip(out.toByteArray()));
+	}
+
+	private static byte[] gunzip(final byte[] compressed) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			final byte[] buffer = new byte[4096];
+			for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+				out.write(buffer, 0, count);
+			}
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.updater.UploadableFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link ConnectionPool} shared by all {@link WebDAVUploader}s.
+ */
+public class ConnectionPoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSharedClientKeepsCredentialsApart() throws Exception {
+		try (WebDAVTestServer first = new WebDAVTestServer("alice", "secret");
+				WebDAVTestServer second = new WebDAVTestServer("bob", "password")) {
+			final WebDAVUploader alice = createUploader(first, "alice", "secret");
+			final WebDAVUploader bob = createUploader(second, "bob", "password");
+			final WebDAVUploader intruder = createUploader(first, "bob", "password");
+			assertSame(ConnectionPool.getClient(), WebDAVUploader.client);
+
+			// interleave the requests, so that they share the pooled connections
+			for (int i = 0; i < 3; i++) {
+				assertTrue(alice.directoryExists(""));
+				assertTrue(bob.directoryExists(""));
+			}
+			// each uploader authenticated preemptively after its first challenge
+			assertEquals(1, first.getChallengeCount());
+			assertEquals(1, second.getChallengeCount());
+
+			try {
+				intruder.directoryExists("");
+				fail("Authenticated with the credentials of another uploader");
+			} catch (WebDAVUploader.UnauthenticatedException e) {
+				// expected
+			}
+			final long challenges = first.getChallengeCount();
+			assertTrue(alice.directoryExists(""));
+			assertTrue(bob.directoryExists(""));
+			assertEquals(challenges, first.getChallengeCount());
+			assertEquals(1, second.getChallengeCount());
+		}
+	}
+
+	@Test
+	public void testRetriesOnlyViaRetryPolicy() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			final AtomicInteger connections = new AtomicInteger();
+			final Thread thread = new Thread(() -> resetConnections(server, connections));
+			thread.setDaemon(true);
+			thread.start();
+
+			final WebDAVUploader uploader;
+			System.setProperty("webdav.maxRetries", "2");
+			System.setProperty("webdav.retryDelay", "1");
+			try {
+				uploader = createUploader("http://localhost:" + server.getLocalPort() + "/webdav/", "user", "secret");
+			} finally {
+				System.clearProperty("webdav.maxRetries");
+				System.clearProperty("webdav.retryDelay");
+			}
+			final File file = folder.newFile();
+			Files.write(file.toPath(), new byte[1000]);
+			try {
+				uploader.upload(new UploadableFile(file, "jars/reset.jar"), null, null);
+				fail("Uploaded to a server that resets every connection");
+			} catch (IOException e) {
+				// expected
+			}
+			// the first attempt and two retries, without any retries by HttpClient itself
+			assertEquals(3, connections.get());
+		}
+	}
+
+	/**
+	 * Accepts connections, reads the request head and resets the connection.
+	 */
+	private static void resetConnections(final ServerSocket server, final AtomicInteger connections) {
+		while (!server.isClosed()) {
+			try (Socket socket = server.accept()) {
+				connections.incrementAndGet();
+				final InputStream in = socket.getInputStream();
+				for (int matched = 0; matched < 4; ) {
+					final int c = in.read();
+					if (c < 0) break;
+					matched = c == "\r\n\r\n".charAt(matched) ? matched + 1 : c == '\r' ? 1 : 0;
+				}
+				// closing the socket with a zero linger time sends a RST
+				socket.setSoLinger(true, 0);
+			} catch (IOException e) {
+				// the server socket was closed
+			}
+		}
+	}
+
+	private static WebDAVUploader createUploader(final WebDAVTestServer server,
+			final String username, final String password) {
+		return createUploader(server.getURL(), username, password);
+	}
+
+	private static WebDAVUploader createUploader(final String url,
+			final String username, final String password) {
+		final WebDAVUploader uploader = new WebDAVUploader();
+		uploader.setBaseUrl(url);
+		uploader.setCredentials(username, password);
+		return uploader;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the streaming digests of {@link ContentDigest}.
+ */
+public class ContentDigestTest {
+
+	@Test
+	public void testSegmentsAndRetries() throws IOException {
+		final byte[] content = new byte[100000];
+		new Random(1).nextBytes(content);
+
+		final ContentDigest digest = new ContentDigest();
+		digest.update(0, content, 0, 30000);
+		// a retried request sends the same bytes again
+		digest.update(0, content, 0, 40000);
+		digest.update(40000, content, 40000, 10000);
+		// a retried segment
+		digest.update(40000, content, 40000, 10000);
+		assertFalse(digest.isComplete(content.length));
+		digest.update(50000, content, 50000, 50000);
+		assertTrue(digest.isComplete(content.length));
+		assertEquals(content.length, digest.getLength());
+
+		assertEquals(Digests.toHex(Digests.getInstance("MD5").digest(content)), digest.getMD5Hex());
+		assertEquals(Digests.toHex(Digests.getInstance("SHA-256").digest(content)), digest.getSHA256Hex());
+	}
+
+	@Test
+	public void testGap() {
+		final byte[] content = new byte[1000];
+		final ContentDigest digest = new ContentDigest();
+		digest.update(0, content, 0, 100);
+		// a skipped segment leaves the digest incomplete
+		digest.update(200, content, 200, 800);
+		assertFalse(digest.isComplete(content.length));
+	}
+
+	@Test
+	public void testContentMD5() throws IOException {
+		final ContentDigest digest = new ContentDigest();
+		digest.digest(new ByteArrayInputStream(new byte[0]));
+		assertEquals("1B2M2Y8AsgTpgAmY7PhCfg==", digest.getContentMD5());
+	}
+
+	@Test
+	public void testRemoteChecksums() {
+		final RemoteResource remote = new RemoteResource(3, null, "SHA1:abc MD5:DEF ADLER32:123");
+		assertEquals("def", remote.getChecksum("md5"));
+		assertNull(remote.getChecksum("SHA256"));
+		assertNull(new RemoteResource(3, null).getChecksum("MD5"));
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the lookup of remote files by content in {@link ContentIndex}.
+ */
+public class ContentIndexTest {
+
+	private static final String MD5 = "0123456789abcdef0123456789abcdef";
+
+	@Test
+	public void testFind() {
+		final Map<String, RemoteResource> files = new LinkedHashMap<>();
+		files.put("jars/a.jar-1", new RemoteResource(10, "\"opaque-etag\""));
+		files.put("jars/a.jar-2", new RemoteResource(10, MD5.toUpperCase()));
+		files.put("jars/b.jar-1", new RemoteResource(10, null, "SHA1:abc MD5:" + MD5));
+		files.put("jars/c.jar", new RemoteResource(20, "1234"));
+		final ContentIndex index = new ContentIndex(files);
+
+		assertTrue(index.hasCandidates(10));
+		// ETags that are no digests tell nothing about the content
+		assertFalse(index.hasCandidates(20));
+		assertEquals("jars/a.jar-2", index.find("jars/a.jar-3", 10, MD5, "unknown"));
+		assertEquals("jars/b.jar-1", index.find("jars/b.jar-1", 10, MD5, "unknown"));
+		assertNull(index.find("jars/a.jar-3", 10, "fedcba9876543210fedcba9876543210", "unknown"));
+		assertNull(index.find("jars/a.jar-3", 11, MD5, "unknown"));
+	}
+
+	@Test
+	public void testUploaded() throws IOException {
+		final ContentIndex index = new ContentIndex(new LinkedHashMap<>());
+		final ContentDigest digest = new ContentDigest();
+		digest.digest(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+		index.add("a.jar", digest);
+		assertEquals("a.jar", index.find("b.jar", 3, digest.getMD5Hex(), digest.getSHA256Hex()));
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests the background refresh of locks by {@link LockKeeper}.
+ */
+public class LockKeeperTest {
+
+	@Test
+	public void testRefresh() throws Exception {
+		final AtomicInteger refreshes = new AtomicInteger();
+		try (LockKeeper keeper = new LockKeeper((path, token) -> {
+			assertEquals("db.xml.gz.lock", path);
+			assertEquals("token", token);
+			refreshes.incrementAndGet();
+			return 30;
+		}, 10)) {
+			keeper.keep("db.xml.gz.lock", "token", 30);
+			Thread.sleep(200);
+			keeper.check();
+		}
+		final int count = refreshes.get();
+		assertTrue("Only " + count + " refreshes", count >= 3);
+		Thread.sleep(50);
+		assertEquals(count, refreshes.get());
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final AtomicInteger refreshes = new AtomicInteger();
+		try (LockKeeper keeper = new LockKeeper((path, token) -> {
+			refreshes.incrementAndGet();
+			throw new IOException("412 Precondition Failed");
+		}, 10)) {
+			keeper.keep("db.xml.gz.lock", "token", 30);
+			Thread.sleep(100);
+			try {
+				keeper.check();
+				fail("The failed refresh was not reported");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().contains("412"));
+			}
+		}
+		assertEquals(1, refreshes.get());
+	}
+
+	@Test
+	public void testInterval() {
+		final LockKeeper keeper = new LockKeeper((path, token) -> 0);
+		assertEquals(200 * 1000, keeper.getInterval(600 * 1000));
+		assertEquals(1000, keeper.getInterval(1500));
+	}
+}
@@ -36,12 +36,16 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 import net.imagej.plugins.uploaders.webdav.NetrcParser;
 import net.imagej.plugins.uploaders.webdav.NetrcParser.Credentials;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Tests the .netrc parser.
@@ -50,6 +54,9 @@ import org.junit.Test;
  */
 public class NetrcParserTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testParser() throws IOException {
 		final NetrcParser parser = new NetrcParser(getClass().getResource("netrc.for-testing"));
@@ -75,4 +82,48 @@ public class NetrcParserTest {
 		final NetrcParser parser = new NetrcParser(null);
 		assertFalse(parser.getCredentials((Credentials)null));
 	}
+
+	@Test
+	public void testDefaultAndMacdef() throws IOException {
+		final File netrc = write(folder.newFile("netrc"),
+			"machine example.org login alice password a#1",
+			"macdef init",
+			"machine example.org login mallory password evil",
+			"",
+			"# a comment: machine example.org login eve password eve",
+			"machine example.org account x login bob password b # comment",
+			"default login anonymous password guest");
+		final NetrcParser parser = new NetrcParser(netrc.toURI().toURL());
+
+		final Credentials alice = parser.getCredentials("example.org");
+		assertEquals("alice", alice.getUsername());
+		assertEquals("a#1", alice.getPassword());
+		assertEquals("b", parser.getCredentials("example.org", "bob").getPassword());
+		assertNull(parser.getCredentials("example.org", "mallory"));
+		assertNull(parser.getCredentials("example.org", "eve"));
+
+		final Credentials other = parser.getCredentials("other.org");
+		assertEquals("anonymous", other.getUsername());
+		assertEquals("guest", other.getPassword());
+	}
+
+	@Test
+	public void testReparsesChangedFile() throws IOException {
+		final File netrc = write(folder.newFile("netrc"), "machine example.org login alice password 1");
+		final NetrcParser parser = new NetrcParser(netrc.toURI().toURL());
+		assertEquals("1", parser.getCredentials("example.org").getPassword());
+
+		write(netrc, "machine example.org login alice password 22");
+		assertEquals("22", new NetrcParser(netrc.toURI().toURL()).getCredentials("example.org").getPassword());
+		assertEquals("22", parser.getCredentials("example.org").getPassword());
+	}
+
+	private static File write(final File file, final String... lines) throws IOException {
+		try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+			for (final String line : lines) {
+				writer.println(line);
+			}
+		}
+		return file;
+	}
 }
@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+import java.net.URLEncoder;
+
+import org.junit.Test;
+
+/**
+ * Tests the path encoding of {@link PathEncoder}.
+ */
+public class PathEncoderTest {
+
+	@Test
+	public void testEncode() throws Exception {
+		assertEquals("jars/imagej-common-2.0.0.jar", PathEncoder.encode("jars/imagej-common-2.0.0.jar"));
+		assertEquals("lib/Some%20Library%20%28x86_64%29%2B1.so", PathEncoder.encode("lib/Some Library (x86_64)+1.so"));
+		assertEquals("a%25b/%3F%23%26%3D", PathEncoder.encode("a%b/?#&="));
+		assertEquals("~user/a_b", PathEncoder.encode("~user/a_b"));
+		assertEquals("plugins/M%C3%BCller%E2%82%AC%F0%9F%98%80.jar", PathEncoder.encode("plugins/M\u00fcller\u20ac\ud83d\ude00.jar"));
+		assertEquals("", PathEncoder.encode(""));
+	}
+
+	@Test
+	public void testCompatibleWithURLEncoder() throws Exception {
+		final StringBuilder builder = new StringBuilder();
+		for (char c = 1; c < 0x300; c++) {
+			if (c != '*' && c != '~') builder.append(c);
+		}
+		builder.append("/\u4e2d\u6587/\ud83d\ude00\ud800x");
+		final String path = builder.toString();
+		final String expected = URLEncoder.encode(path, "UTF-8").replace("%2F", "/").replace("+", "%20");
+		assertEquals(expected, PathEncoder.encode(path));
+	}
+
+	@Test
+	public void testCachedURLs() throws Exception {
+		final WebDAVUploader uploader = new WebDAVUploader();
+		uploader.setBaseUrl("https://sites.imagej.net/Test");
+		final URL file = uploader.getURL("jars/a b.jar", false);
+		assertEquals("https://sites.imagej.net/Test/jars/a%20b.jar", file.toString());
+		assertSame(file, uploader.getURL("jars/a b.jar", false));
+		assertEquals("https://sites.imagej.net/Test/jars/", uploader.getURL("jars", true).toString());
+		assertEquals("https://sites.imagej.net/Test/", uploader.getURL("", true).toString());
+
+		uploader.setBaseUrl("https://sites.imagej.net/Other/");
+		assertEquals("https://sites.imagej.net/Other/jars/a%20b.jar", uploader.getURL("jars/a b.jar", false).toString());
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.plugins.uploaders.webdav.ProgressHttpEntityWrapper.ProgressFilterOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link ProgressFilterOutputStream} coalesces progress reports.
+ */
+public class ProgressHttpEntityWrapperTest {
+
+	@Test
+	public void testSingleByteWrites() throws IOException {
+		final List<Float> reports = new ArrayList<>();
+		final int total = 1000 * 1000;
+		final ByteArrayOutputStream sink = new ByteArrayOutputStream(total);
+		try (ProgressFilterOutputStream out = new ProgressFilterOutputStream(sink, reports::add, total)) {
+			for (int i = 0; i < total; i++) {
+				out.write(i);
+			}
+		}
+		assertEquals(total, sink.size());
+		// at most one report per granularity, and always the final one
+		assertTrue(reports.size() <= total / ProgressFilterOutputStream.MIN_GRANULARITY + 1);
+		assertEquals(1f, reports.get(reports.size() - 1), 0);
+	}
+
+	@Test
+	public void testLargeWrite() throws IOException {
+		final List<Float> reports = new ArrayList<>();
+		final byte[] buffer = new byte[100];
+		try (ProgressFilterOutputStream out = new ProgressFilterOutputStream(new ByteArrayOutputStream(), reports::add, buffer.length)) {
+			out.write(buffer, 0, buffer.length);
+		}
+		assertEquals(1, reports.size());
+		assertEquals(1f, reports.get(0), 0);
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.jackrabbit.webdav.property.DavPropertyName;
+import org.apache.jackrabbit.webdav.property.DavPropertySet;
+import org.apache.jackrabbit.webdav.property.DefaultDavProperty;
+import org.junit.Test;
+
+/**
+ * Tests {@link RemoteResource}.
+ */
+public class RemoteResourceTest {
+
+	@Test
+	public void testNormalizeETag() {
+		assertEquals("abc", RemoteResource.normalizeETag("\"abc\""));
+		assertEquals("abc", RemoteResource.normalizeETag(" W/\"abc\" "));
+		assertEquals("abc", RemoteResource.normalizeETag("abc"));
+		assertNull(RemoteResource.normalizeETag("\"\""));
+		assertNull(RemoteResource.normalizeETag(null));
+	}
+
+	@Test
+	public void testFromProperties() {
+		final DavPropertySet properties = new DavPropertySet();
+		properties.add(new DefaultDavProperty<>(DavPropertyName.GETCONTENTLENGTH, " 1234 "));
+		properties.add(new DefaultDavProperty<>(DavPropertyName.GETETAG, "W/\"0123abcd\""));
+		final RemoteResource resource = RemoteResource.fromProperties(properties);
+		assertEquals(1234, resource.getSize());
+		assertEquals("0123abcd", resource.getETag());
+		assertNull(resource.getChecksum("MD5"));
+
+		final RemoteResource unknown = RemoteResource.fromProperties(new DavPropertySet());
+		assertEquals(-1, unknown.getSize());
+		assertNull(unknown.getETag());
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+/**
+ * Tests the request ring buffer {@link RequestTrace}.
+ */
+public class RequestTraceTest {
+
+	@Test
+	public void testDump() throws IOException {
+		final RequestTrace trace = new RequestTrace(4);
+		for (int i = 0; i < 6; i++) {
+			final HttpPut put = new HttpPut("http://localhost/file" + i);
+			put.setHeader("Content-Range", "bytes 0-9/20");
+			put.setHeader("Authorization", "Digest secret");
+			put.setEntity(new StringEntity("0123456789", "UTF-8"));
+			if (i == 5) {
+				trace.record(put, 1, System.nanoTime(), null, new SocketException("Connection reset"));
+			} else {
+				final HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 201, "Created");
+				trace.record(put, 0, System.nanoTime(), response, null);
+			}
+		}
+		assertEquals(6, trace.getCount());
+
+		final StringBuilder builder = new StringBuilder();
+		trace.dump(builder);
+		final String[] lines = builder.toString().split("\n");
+		assertEquals(4, lines.length);
+		assertTrue(lines[0], lines[0].contains("#2 ") && lines[0].contains("PUT http://localhost/file2"));
+		assertTrue(lines[0], lines[0].contains("Content-Range: bytes 0-9/20;"));
+		assertTrue(lines[0], lines[0].contains("-> 201 Created"));
+		assertTrue(lines[0], lines[0].contains("sent 10 bytes"));
+		assertTrue(lines[3], lines[3].contains("(retry 1)") && lines[3].contains("Connection reset"));
+		assertTrue(!builder.toString().contains("secret"));
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.jackrabbit.webdav.client.methods.HttpMkcol;
+import org.apache.jackrabbit.webdav.client.methods.HttpMove;
+import org.junit.Test;
+
+/**
+ * Tests the classification and back-off of {@link RetryPolicy}.
+ */
+public class RetryPolicyTest {
+
+	@Test
+	public void testClassification() {
+		final RetryPolicy policy = new RetryPolicy(3, 100, 10, 100);
+		final IOException reset = new SocketException("Connection reset");
+
+		assertTrue(policy.shouldRetry(new HttpMkcol("http://localhost/a/"), reset, 0));
+		assertTrue(policy.shouldRetry(new HttpMkcol("http://localhost/a/"), new SocketTimeoutException(), 0));
+		assertFalse(policy.shouldRetry(new HttpMkcol("http://localhost/a/"), new UnknownHostException(), 0));
+		assertFalse(policy.shouldRetry(new HttpMove("http://localhost/a", "http://localhost/b", true), reset, 0));
+
+		final HttpPut repeatable = new HttpPut("http://localhost/a");
+		repeatable.setEntity(new StringEntity("a", "UTF-8"));
+		assertTrue(policy.shouldRetry(repeatable, response(503), 0));
+		assertFalse(policy.shouldRetry(repeatable, response(500), 0));
+		assertFalse(policy.shouldRetry(repeatable, response(503), 3));
+
+		final HttpPut streaming = new HttpPut("http://localhost/a");
+		streaming.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[1])));
+		assertFalse(policy.shouldRetry(streaming, response(503), 0));
+	}
+
+	@Test
+	public void testBudget() {
+		final RetryPolicy policy = new RetryPolicy(3, 2, 10, 100);
+		final HttpMkcol method = new HttpMkcol("http://localhost/a/");
+		assertTrue(policy.shouldRetry(method, response(502), 0));
+		assertTrue(policy.shouldRetry(method, response(502), 0));
+		assertFalse(policy.shouldRetry(method, response(502), 0));
+		policy.reset();
+		assertTrue(policy.shouldRetry(method, response(502), 0));
+	}
+
+	@Test
+	public void testDelay() {
+		final RetryPolicy policy = new RetryPolicy(10, 100, 10, 100);
+		for (int retries = 0; retries < 10; retries++) {
+			final long delay = policy.getDelay(retries, null);
+			assertTrue(delay >= 0 && delay <= Math.min(100, 10 << retries));
+		}
+		final HttpResponse response = response(503);
+		response.setHeader("Retry-After", "1");
+		assertTrue(policy.getDelay(0, response) == 100);
+	}
+
+	private static HttpResponse response(final int status) {
+		return new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+	}
+}
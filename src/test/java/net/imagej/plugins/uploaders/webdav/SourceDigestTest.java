@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.updater.Uploadable;
+
+import org.junit.Test;
+
+/**
+ * Tests that {@link SourceDigest} reads its source only once.
+ */
+public class SourceDigestTest {
+
+	@Test
+	public void testReadsOnce() throws IOException {
+		final byte[] content = new byte[100000];
+		new Random(1).nextBytes(content);
+		final AtomicInteger reads = new AtomicInteger();
+		final Uploadable source = new Uploadable() {
+
+			@Override
+			public String getFilename() {
+				return "content.bin";
+			}
+
+			@Override
+			public long getFilesize() {
+				return content.length;
+			}
+
+			@Override
+			public long getTimestamp() {
+				return 0;
+			}
+
+			@Override
+			public InputStream getInputStream() {
+				reads.incrementAndGet();
+				return new ByteArrayInputStream(content);
+			}
+		};
+
+		final SourceDigest digest = new SourceDigest(source);
+		assertEquals(0, reads.get());
+		final ContentDigest first = digest.get();
+		assertSame(first, digest.get());
+		assertEquals(1, reads.get());
+		assertEquals(content.length, first.getLength());
+		assertEquals(Digests.toHex(Digests.getInstance("MD5").digest(content)), first.getMD5Hex());
+		assertEquals(Digests.toHex(Digests.getInstance("SHA-256").digest(content)), first.getSHA256Hex());
+	}
+}
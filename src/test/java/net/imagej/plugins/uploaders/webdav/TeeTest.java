@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests the bounded fan-out of {@link Tee}.
+ */
+public class TeeTest {
+
+	@Test
+	public void testConsumers() throws Exception {
+		final byte[] content = new byte[1000000];
+		new Random(1).nextBytes(content);
+		final Tee tee = new Tee(3, 128 * 1024);
+		final ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			final Future<byte[]> first = executor.submit(() -> readAll(tee.getInput(0)));
+			final Future<byte[]> second = executor.submit(() -> readAll(tee.getInput(1)));
+			// a consumer that gives up must not stall the others
+			executor.submit(() -> {
+				try (InputStream third = tee.getInput(2)) {
+					return third.read(new byte[100]);
+				}
+			});
+
+			final ContentDigest digest = new ContentDigest();
+			tee.pump(new ByteArrayInputStream(content), digest);
+			assertArrayEquals(content, first.get());
+			assertArrayEquals(content, second.get());
+			assertTrue(digest.isComplete(content.length));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFailingSource() throws Exception {
+		final Tee tee = new Tee(1, 1024);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<byte[]> consumer = executor.submit(() -> readAll(tee.getInput(0)));
+			try {
+				tee.pump(new InputStream() {
+					@Override
+					public int read() throws IOException {
+						throw new IOException("disk on fire");
+					}
+				}, null);
+				fail("Source did not fail");
+			} catch (IOException e) {
+				assertEquals("disk on fire", e.getMessage());
+			}
+			try {
+				consumer.get();
+				fail("Consumer did not fail");
+			} catch (Exception e) {
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[10000];
+		for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+}
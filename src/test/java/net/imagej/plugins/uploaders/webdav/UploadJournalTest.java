@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the replay of {@link UploadJournal}s.
+ */
+public class UploadJournalTest {
+
+	private static final String URL = "https://sites.imagej.net/Example/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReplay() throws IOException {
+		final File file = UploadJournal.getFile(folder.getRoot(), URL);
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			assertTrue(journal.isEmpty());
+			journal.lock("db.xml.gz.lock", "opaquelocktoken:1");
+			journal.lock("other.lock", "opaquelocktoken:2");
+			journal.put("jars/with space.jar-20230101120000", 1234, "0123456789abcdef0123456789abcdef");
+			journal.put("jars/unknown.jar", 5, null);
+			journal.unlock("other.lock");
+			journal.move("db.xml.gz.lock");
+		}
+
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			assertEquals(Collections.singletonMap("db.xml.gz.lock", "opaquelocktoken:1"), journal.getLocks());
+			final UploadJournal.Upload upload = journal.getUpload("jars/with space.jar-20230101120000");
+			assertEquals(1234, upload.getSize());
+			assertEquals("0123456789abcdef0123456789abcdef", upload.getMD5());
+			assertNull(journal.getUpload("jars/unknown.jar").getMD5());
+			assertEquals(Collections.singleton("db.xml.gz.lock"), journal.getPendingMoves());
+
+			journal.moved("db.xml.gz.lock");
+			assertTrue(journal.getLocks().isEmpty());
+			assertTrue(journal.getPendingMoves().isEmpty());
+		}
+	}
+
+	@Test
+	public void testIncompleteRecord() throws IOException {
+		final File file = UploadJournal.getFile(folder.getRoot(), URL);
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			journal.put("a.jar", 1, "aa");
+		}
+		try (OutputStream out = new FileOutputStream(file, true)) {
+			// a crash while appending a record
+			out.write("PUT 2 bb b.j".getBytes(StandardCharsets.UTF_8));
+		}
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			assertEquals("aa", journal.getUpload("a.jar").getMD5());
+			assertNull(journal.getUpload("b.j"));
+		}
+	}
+
+	@Test
+	public void testOtherSite() throws IOException {
+		final File file = new File(folder.getRoot(), "site.journal");
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			journal.put("a.jar", 1, "aa");
+		}
+		try (UploadJournal journal = new UploadJournal(file, "https://example.org/", 0)) {
+			assertTrue(journal.isEmpty());
+		}
+	}
+
+	@Test
+	public void testDeletion() throws IOException {
+		final File file = UploadJournal.getFile(folder.getRoot(), URL);
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			journal.lock("a.lock", "opaquelocktoken:1");
+			journal.unlock("a.lock");
+		}
+		assertFalse("nothing to resume", file.exists());
+
+		final UploadJournal journal = new UploadJournal(file, URL, 0);
+		journal.put("a.jar", 1, "aa");
+		journal.close();
+		assertTrue(file.exists());
+
+		new UploadJournal(file, URL, 0).delete();
+		assertFalse(file.exists());
+	}
+
+	@Test
+	public void testExclusive() throws IOException {
+		final File file = UploadJournal.getFile(folder.getRoot(), URL);
+		try (UploadJournal journal = new UploadJournal(file, URL, 0)) {
+			try {
+				new UploadJournal(file, URL, 0);
+				fail("Opened a journal that is in use");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+/**
+ * Tests the recording of {@link UploadMetrics} and {@link LatencyHistogram}.
+ */
+public class UploadMetricsTest {
+
+	@Test
+	public void testHistogram() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500.5, histogram.getMeanMillis(), 0.001);
+		assertEquals(1000, histogram.getMaxMillis(), 0);
+		assertEquals(500, histogram.getPercentileMillis(50), 500 * 0.125);
+		assertEquals(990, histogram.getPercentileMillis(99), 990 * 0.125);
+		assertTrue(histogram.getPercentileMillis(100) <= 1000);
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentileMillis(50), 0);
+	}
+
+	@Test
+	public void testBuckets() {
+		for (long micros = 0; micros < 1 << 20; micros += 1 + micros / 64) {
+			final int bucket = LatencyHistogram.getBucket(micros);
+			assertTrue(micros <= LatencyHistogram.getUpperBound(bucket));
+			assertTrue(bucket == 0 || micros > LatencyHistogram.getUpperBound(bucket - 1));
+		}
+	}
+
+	@Test
+	public void testRequests() throws Exception {
+		final UploadMetrics metrics = new UploadMetrics(false);
+		final BasicCredentialsProvider provider = new BasicCredentialsProvider();
+		provider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials("user", "secret"));
+		final BasicAuthCache authCache = new BasicAuthCache();
+		try (WebDAVTestServer server = new WebDAVTestServer("user", "secret");
+				CloseableHttpClient client = HttpClients.custom()
+					.setRequestExecutor(metrics.createRequestExecutor()).build()) {
+			for (int i = 0; i < 3; i++) {
+				final HttpPut put = new HttpPut(server.getURL() + "file" + i);
+				put.setEntity(new ByteArrayEntity(new byte[1000]));
+				final HttpClientContext context = HttpClientContext.create();
+				context.setCredentialsProvider(provider);
+				context.setAuthCache(authCache);
+				final HttpResponse response = client.execute(put, context);
+				EntityUtils.consume(response.getEntity());
+				assertEquals(201, response.getStatusLine().getStatusCode());
+			}
+		}
+
+		final Map<String, RequestMetricsMXBean> byClass = new HashMap<>();
+		for (final RequestMetricsMXBean requests : metrics.getRequestMetrics()) {
+			assertEquals("PUT", requests.getMethod());
+			byClass.put(requests.getStatusClass(), requests);
+		}
+		assertEquals(3, byClass.get("2xx").getCount());
+		assertTrue(byClass.get("2xx").getBytesSent() > 3000);
+		assertTrue(byClass.get("2xx").getLatencyMaxMillis() >= byClass.get("2xx").getLatencyP50Millis());
+		assertEquals(metrics.getAuthChallenges(), byClass.get("4xx").getCount());
+		assertTrue(metrics.getAuthChallenges() >= 1);
+		assertEquals(3 + metrics.getAuthChallenges(), metrics.getRequestCount());
+		assertTrue(metrics.getConnectionReuseRatio() > 0.5);
+	}
+}
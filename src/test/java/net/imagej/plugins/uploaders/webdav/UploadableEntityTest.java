@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.imagej.updater.Uploadable;
+import net.imagej.updater.UploadableFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that {@link UploadableEntity} sends the same bytes for file-backed
+ * and other sources.
+ */
+public class UploadableEntityTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRanges() throws IOException {
+		final byte[] content = new byte[3 * UploadableEntity.BUFFER_SIZE + 17];
+		new Random(1).nextBytes(content);
+		final File file = folder.newFile("content.bin");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(content);
+		}
+		final Uploadable fromFile = new UploadableFile(file, "content.bin");
+		final Uploadable fromStream = new Uploadable() {
+
+			@Override
+			public String getFilename() {
+				return "content.bin";
+			}
+
+			@Override
+			public long getFilesize() {
+				return content.length;
+			}
+
+			@Override
+			public long getTimestamp() {
+				return 0;
+			}
+
+			@Override
+			public InputStream getInputStream() {
+				return new ByteArrayInputStream(content);
+			}
+		};
+
+		final long[][] ranges = { { 0, content.length }, { 5, 1 }, { 12345, 2 * UploadableEntity.BUFFER_SIZE } };
+		for (final long[] range : ranges) {
+			final byte[] expected = Arrays.copyOfRange(content, (int) range[0], (int) (range[0] + range[1]));
+			for (final Uploadable source : new Uploadable[] { fromFile, fromStream }) {
+				final UploadableEntity entity = new UploadableEntity(source, range[0], range[1]);
+				assertEquals(range[1], entity.getContentLength());
+				assertFalse(entity.isChunked());
+				// twice, to verify that the entity is repeatable
+				for (int i = 0; i < 2; i++) {
+					final ByteArrayOutputStream out = new ByteArrayOutputStream();
+					entity.writeTo(out);
+					assertArrayEquals(expected, out.toByteArray());
+				}
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedFile() throws IOException {
+		final File file = folder.newFile("truncated.bin");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[10]);
+		}
+		final Uploadable source = new UploadableFile(file, "truncated.bin");
+		new UploadableEntity(source, 0, 20).writeTo(new ByteArrayOutputStream());
+	}
+}
@@ -0,0 +1,639 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A minimal in-process WebDAV server for tests and benchmarks.
+ * <p>
+ * It keeps all resources in memory and supports just enough of RFC 4918 for
+ * the {@link WebDAVUploader}: OPTIONS, PROPFIND (depth 0, 1 and infinity),
+ * MKCOL, GET, HEAD, PUT (including <code>Content-Range</code> and
+ * <code>Content-Encoding: gzip</code> and <code>Content-MD5</code>), DELETE, MOVE, COPY, and exclusive write
+ * locks via LOCK and UNLOCK. All requests require HTTP Digest
+ * authentication. The ETag of a file is the MD5 digest of its content.
+ * </p>
+ * <p>
+ * The server counts the requests per method and the bytes it received, so
+ * that tests and benchmarks can check how many round trips an upload takes.
+ * </p>
+ */
+public class WebDAVTestServer implements AutoCloseable {
+
+	private static final String REALM = "WebDAV test server";
+	private static final String BASE = "/webdav/";
+	private static final Pattern DIGEST_PARAMETER = Pattern.compile("(\\w+)=(?:\"([^\"]*)\"|([^,\\s]*))");
+
+	private final String username, password;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/** The files, keyed by path relative to the base URL. */
+	private final Map<String, byte[]> files = new TreeMap<>();
+
+	/** The directories, keyed by path relative to the base URL, ending in a slash. */
+	private final Map<String, Long> directories = new TreeMap<>();
+
+	private final Map<String, Long> lastModified = new HashMap<>();
+
+	/** The lock tokens, keyed by path. */
+	private final Map<String, String> locks = new HashMap<>();
+
+	private final Set<String> nonces = ConcurrentHashMap.newKeySet();
+	private final Map<String, AtomicLong> requests = new ConcurrentHashMap<>();
+	private final AtomicLong challenges = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final Map<String, AtomicLong> inFlight = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> maxInFlight = new ConcurrentHashMap<>();
+	private final Map<String, Long> delays = new ConcurrentHashMap<>();
+	private volatile boolean infinityAllowed = true;
+	private volatile boolean rangedPutSupported = true;
+	private volatile boolean decodingBodies = true;
+	private volatile boolean corruptingBodies;
+
+	public WebDAVTestServer(final String username, final String password) throws IOException {
+		this.username = username;
+		this.password = password;
+		directories.put("", System.currentTimeMillis());
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext(BASE, this::handle);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the base URL, ending in a slash
+	 */
+	public String getURL() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + BASE;
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public synchronized byte[] getFile(final String path) {
+		return files.get(path);
+	}
+
+	public synchronized boolean isDirectory(final String path) {
+		return directories.containsKey(path.endsWith("/") ? path : path + "/");
+	}
+
+	public synchronized boolean isLocked(final String path) {
+		return locks.containsKey(path);
+	}
+
+	/**
+	 * Locks the given path as if another client had locked it.
+	 * 
+	 * @return the lock token
+	 */
+	public synchronized String lock(final String path) {
+		final String token = "opaquelocktoken:" + UUID.randomUUID();
+		locks.put(path, token);
+		if (!files.containsKey(path)) putFile(path, new byte[0]);
+		return token;
+	}
+
+	public synchronized void putFile(final String path, final byte[] content) {
+		files.put(path, content);
+		lastModified.put(path, System.currentTimeMillis());
+	}
+
+	/**
+	 * @return the number of requests (including authentication challenges)
+	 *         with the given method
+	 */
+	public long getRequestCount(final String method) {
+		final AtomicLong count = requests.get(method);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return the number of requests of any method
+	 */
+	public long getRequestCount() {
+		long sum = 0;
+		for (final AtomicLong count : requests.values()) {
+			sum += count.get();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the number of requests that were answered with a 401 challenge
+	 */
+	public long getChallengeCount() {
+		return challenges.get();
+	}
+
+	/**
+	 * @return the number of request body bytes received over the wire
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * @return the maximal number of requests with the given method that were
+	 *         handled at the same time
+	 */
+	public long getMaxConcurrentRequests(final String method) {
+		final AtomicLong count = maxInFlight.get(method);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Delays the responses to authenticated requests with the given method,
+	 * e.g. to simulate slow uploads.
+	 */
+	public void setDelay(final String method, final long millis) {
+		delays.put(method, millis);
+	}
+
+	/**
+	 * Lets the server refuse PROPFIND requests with <code>Depth:
+	 * infinity</code>, as many servers do.
+	 */
+	public void setInfinityAllowed(final boolean allowed) {
+		infinityAllowed = allowed;
+	}
+
+	/**
+	 * Lets the server ignore the <code>Content-Range</code> header of PUT
+	 * requests, replacing the whole file with the partial content, as some
+	 * servers do.
+	 */
+	public void setRangedPutSupported(final boolean supported) {
+		rangedPutSupported = supported;
+	}
+
+	/**
+	 * Lets the server store compressed request bodies as-is, instead of
+	 * decoding them, as most servers do.
+	 */
+	public void setDecodingBodies(final boolean decoding) {
+		decodingBodies = decoding;
+	}
+
+	/**
+	 * Lets the server store every uploaded file with its first byte flipped,
+	 * to simulate a server that corrupts files.
+	 */
+	public void setCorruptingBodies(final boolean corrupting) {
+		corruptingBodies = corrupting;
+	}
+
+	public void resetCounters() {
+		requests.clear();
+		maxInFlight.clear();
+		challenges.set(0);
+		bytesReceived.set(0);
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		final String method = exchange.getRequestMethod();
+		final AtomicLong active = inFlight.computeIfAbsent(method, m -> new AtomicLong());
+		try {
+			requests.computeIfAbsent(method, m -> new AtomicLong()).incrementAndGet();
+			maxInFlight.computeIfAbsent(method, m -> new AtomicLong()).accumulateAndGet(active.incrementAndGet(), Math::max);
+			final byte[] body = readBody(exchange);
+			if (!isAuthorized(exchange)) {
+				challenges.incrementAndGet();
+				final String nonce = UUID.randomUUID().toString();
+				nonces.add(nonce);
+				exchange.getResponseHeaders().set("WWW-Authenticate", "Digest realm=\"" + REALM +
+					"\", qop=\"auth\", algorithm=MD5, nonce=\"" + nonce + "\"");
+				send(exchange, 401, null);
+				return;
+			}
+			final Long delay = delays.get(method);
+			if (delay != null) try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			final String path = getPath(exchange.getRequestURI());
+			if (path == null) {
+				send(exchange, 400, null);
+				return;
+			}
+			synchronized (this) {
+				switch (method) {
+					case "OPTIONS": options(exchange); break;
+					case "PROPFIND": propfind(exchange, path); break;
+					case "MKCOL": mkcol(exchange, path); break;
+					case "GET": case "HEAD": get(exchange, path, "GET".equals(method)); break;
+					case "PUT": put(exchange, path, body); break;
+					case "DELETE": delete(exchange, path); break;
+					case "MOVE": move(exchange, path, true); break;
+					case "COPY": move(exchange, path, false); break;
+					case "LOCK": lock(exchange, path); break;
+					case "UNLOCK": unlock(exchange, path); break;
+					default: send(exchange, 405, null);
+				}
+			}
+		} finally {
+			active.decrementAndGet();
+			exchange.close();
+		}
+	}
+
+	private byte[] readBody(final HttpExchange exchange) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[65536];
+		try (InputStream in = exchange.getRequestBody()) {
+			for (;;) {
+				final int count = in.read(buffer);
+				if (count < 0) break;
+				out.write(buffer, 0, count);
+			}
+		}
+		bytesReceived.addAndGet(out.size());
+		return out.toByteArray();
+	}
+
+	private boolean isAuthorized(final HttpExchange exchange) {
+		final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+		if (authorization == null || !authorization.startsWith("Digest ")) return false;
+		final Map<String, String> parameters = new HashMap<>();
+		final Matcher matcher = DIGEST_PARAMETER.matcher(authorization.substring(7));
+		while (matcher.find()) {
+			parameters.put(matcher.group(1), matcher.group(2) != null ? matcher.group(2) : matcher.group(3));
+		}
+		if (!username.equals(parameters.get("username")) || !nonces.contains(parameters.get("nonce"))) {
+			return false;
+		}
+		final String ha1 = md5(username + ":" + REALM + ":" + password);
+		final String ha2 = md5(exchange.getRequestMethod() + ":" + parameters.get("uri"));
+		final String expected = parameters.containsKey("qop") ?
+			md5(ha1 + ":" + parameters.get("nonce") + ":" + parameters.get("nc") + ":" +
+				parameters.get("cnonce") + ":" + parameters.get("qop") + ":" + ha2) :
+			md5(ha1 + ":" + parameters.get("nonce") + ":" + ha2);
+		return expected.equals(parameters.get("response"));
+	}
+
+	private void options(final HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("DAV", "1, 2");
+		exchange.getResponseHeaders().set("Allow", "OPTIONS, GET, HEAD, PUT, DELETE, PROPFIND, MKCOL, COPY, MOVE, LOCK, UNLOCK");
+		send(exchange, 200, null);
+	}
+
+	private void propfind(final HttpExchange exchange, final String path) throws IOException {
+		final String depthHeader = exchange.getRequestHeaders().getFirst("Depth");
+		final int depth = depthHeader == null || "infinity".equalsIgnoreCase(depthHeader) ?
+			Integer.MAX_VALUE : Integer.parseInt(depthHeader.trim());
+		if (depth == Integer.MAX_VALUE && !infinityAllowed) {
+			send(exchange, 403, null);
+			return;
+		}
+		final String directory = path.isEmpty() || path.endsWith("/") ? path : path + "/";
+		final StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<D:multistatus xmlns:D=\"DAV:\">\n");
+		if (directories.containsKey(directory)) {
+			for (final String child : directories.keySet()) {
+				if (child.startsWith(directory) && depthOf(child, directory) <= depth) {
+					appendResponse(xml, child, null);
+				}
+			}
+			for (final Map.Entry<String, byte[]> entry : files.entrySet()) {
+				if (entry.getKey().startsWith(directory) && depthOf(entry.getKey(), directory) <= depth) {
+					appendResponse(xml, entry.getKey(), entry.getValue());
+				}
+			}
+		} else if (files.containsKey(path)) {
+			appendResponse(xml, path, files.get(path));
+		} else {
+			send(exchange, 404, null);
+			return;
+		}
+		xml.append("</D:multistatus>\n");
+		exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+		send(exchange, 207, xml.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static int depthOf(final String path, final String directory) {
+		final String relative = path.substring(directory.length());
+		int depth = 0;
+		for (final String part : relative.split("/")) {
+			if (!part.isEmpty()) depth++;
+		}
+		return depth;
+	}
+
+	private void appendResponse(final StringBuilder xml, final String path, final byte[] content) {
+		xml.append("<D:response><D:href>").append(encode(BASE + path)).append("</D:href>");
+		xml.append("<D:propstat><D:prop>");
+		if (content == null) {
+			xml.append("<D:resourcetype><D:collection/></D:resourcetype>");
+		} else {
+			xml.append("<D:resourcetype/>");
+			xml.append("<D:getcontentlength>").append(content.length).append("</D:getcontentlength>");
+			xml.append("<D:getetag>\"").append(md5(content)).append("\"</D:getetag>");
+			xml.append("<D:getlastmodified>").append(formatDate(lastModified.get(path))).append("</D:getlastmodified>");
+		}
+		xml.append("</D:prop><D:status>HTTP/1.1 200 OK</D:status></D:propstat></D:response>\n");
+	}
+
+	private void mkcol(final HttpExchange exchange, final String path) throws IOException {
+		final String directory = path.endsWith("/") ? path : path + "/";
+		if (directories.containsKey(directory) || files.containsKey(path)) {
+			send(exchange, 405, null);
+		} else if (!directories.containsKey(getParent(directory))) {
+			send(exchange, 409, null);
+		} else {
+			directories.put(directory, System.currentTimeMillis());
+			send(exchange, 201, null);
+		}
+	}
+
+	private void get(final HttpExchange exchange, final String path, final boolean withBody) throws IOException {
+		final byte[] content = files.get(path);
+		if (content == null) {
+			send(exchange, directories.containsKey(path.endsWith("/") ? path : path + "/") ? 200 : 404, null);
+			return;
+		}
+		exchange.getResponseHeaders().set("ETag", "\"" + md5(content) + "\"");
+		if (withBody) {
+			send(exchange, 200, content);
+		} else {
+			exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+			exchange.sendResponseHeaders(200, -1);
+		}
+	}
+
+	private void put(final HttpExchange exchange, final String path, byte[] body) throws IOException {
+		if (!isLockHolder(exchange, path)) {
+			send(exchange, 423, null);
+			return;
+		}
+		if (!directories.containsKey(getParent(path))) {
+			send(exchange, 409, null);
+			return;
+		}
+		final String contentMD5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+		if (contentMD5 != null && !contentMD5.equals(Base64.getEncoder().encodeToString(md5Bytes(body)))) {
+			send(exchange, 400, null);
+			return;
+		}
+		if (decodingBodies && "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+				final byte[] buffer = new byte[65536];
+				for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+					out.write(buffer, 0, count);
+				}
+			}
+			body = out.toByteArray();
+		}
+		final boolean existed = files.containsKey(path);
+		final String range = exchange.getRequestHeaders().getFirst("Content-Range");
+		if (range != null && rangedPutSupported) {
+			final Matcher matcher = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)").matcher(range);
+			final byte[] current = files.get(path);
+			if (!matcher.matches() || current == null) {
+				send(exchange, 400, null);
+				return;
+			}
+			final int offset = Integer.parseInt(matcher.group(1));
+			final byte[] content = Arrays.copyOf(current, Math.max(current.length, offset + body.length));
+			System.arraycopy(body, 0, content, offset, body.length);
+			body = content;
+		}
+		if (corruptingBodies && body.length > 0) {
+			body = body.clone();
+			body[0] ^= 1;
+		}
+		putFile(path, body);
+		send(exchange, existed ? 204 : 201, null);
+	}
+
+	private void delete(final HttpExchange exchange, final String path) throws IOException {
+		if (files.remove(path) != null) {
+			locks.remove(path);
+			send(exchange, 204, null);
+			return;
+		}
+		final String directory = path.endsWith("/") ? path : path + "/";
+		if (directory.equals("/") || !directories.containsKey(directory)) {
+			send(exchange, 404, null);
+			return;
+		}
+		directories.keySet().removeIf(key -> key.startsWith(directory));
+		files.keySet().removeIf(key -> key.startsWith(directory));
+		locks.keySet().removeIf(key -> key.startsWith(directory));
+		send(exchange, 204, null);
+	}
+
+	private void move(final HttpExchange exchange, final String path, final boolean remove) throws IOException {
+		final String destination;
+		try {
+			destination = getPath(new URI(exchange.getRequestHeaders().getFirst("Destination")));
+		} catch (URISyntaxException | NullPointerException e) {
+			send(exchange, 400, null);
+			return;
+		}
+		if (destination == null || !files.containsKey(path)) {
+			send(exchange, destination == null ? 400 : 404, null);
+			return;
+		}
+		if (remove ? !isLockHolder(exchange, path) : !isLockHolder(exchange, destination)) {
+			send(exchange, 423, null);
+			return;
+		}
+		if (!directories.containsKey(getParent(destination))) {
+			send(exchange, 409, null);
+			return;
+		}
+		final boolean existed = files.containsKey(destination);
+		if (existed && "F".equals(exchange.getRequestHeaders().getFirst("Overwrite"))) {
+			send(exchange, 412, null);
+			return;
+		}
+		if (!remove) {
+			putFile(destination, files.get(path).clone());
+			send(exchange, existed ? 204 : 201, null);
+			return;
+		}
+		putFile(destination, files.remove(path));
+		// RFC 4918: locks do not move with the resource
+		locks.remove(path);
+		send(exchange, existed ? 204 : 201, null);
+	}
+
+	private void lock(final HttpExchange exchange, final String path) throws IOException {
+		String token = locks.get(path);
+		if (token != null) {
+			// a refresh must present the token
+			if (!isLockHolder(exchange, path)) {
+				send(exchange, 423, null);
+				return;
+			}
+		} else {
+			token = "opaquelocktoken:" + UUID.randomUUID();
+			locks.put(path, token);
+			if (!files.containsKey(path)) putFile(path, new byte[0]);
+		}
+		final String xml = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" +
+			"<D:prop xmlns:D=\"DAV:\"><D:lockdiscovery><D:activelock>" +
+			"<D:locktype><D:write/></D:locktype><D:lockscope><D:exclusive/></D:lockscope>" +
+			"<D:depth>0</D:depth><D:timeout>Second-600</D:timeout>" +
+			"<D:locktoken><D:href>" + token + "</D:href></D:locktoken>" +
+			"<D:lockroot><D:href>" + encode(BASE + path) + "</D:href></D:lockroot>" +
+			"</D:activelock></D:lockdiscovery></D:prop>\n";
+		exchange.getResponseHeaders().set("Lock-Token", "<" + token + ">");
+		exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+		send(exchange, 200, xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void unlock(final HttpExchange exchange, final String path) throws IOException {
+		final String token = locks.get(path);
+		final String header = exchange.getRequestHeaders().getFirst("Lock-Token");
+		if (token == null || header == null || !header.contains(token)) {
+			send(exchange, 409, null);
+			return;
+		}
+		locks.remove(path);
+		send(exchange, 204, null);
+	}
+
+	private boolean isLockHolder(final HttpExchange exchange, final String path) {
+		final String token = locks.get(path);
+		if (token == null) return true;
+		final String condition = exchange.getRequestHeaders().getFirst("If");
+		return condition != null && condition.contains("<" + token + ">");
+	}
+
+	private static String getParent(final String path) {
+		final int slash = path.lastIndexOf('/', path.endsWith("/") ? path.length() - 2 : path.length() - 1);
+		return slash < 0 ? "" : path.substring(0, slash + 1);
+	}
+
+	/**
+	 * @return the decoded path relative to the base URL, or null if outside
+	 */
+	private static String getPath(final URI uri) {
+		final String path = uri.getPath();
+		if (path == null) return null;
+		if (path.equals(BASE.substring(0, BASE.length() - 1))) return "";
+		return path.startsWith(BASE) ? path.substring(BASE.length()) : null;
+	}
+
+	private static String encode(final String path) {
+		try {
+			// escaped for use in XML
+			return new URI(null, null, path, null).getRawPath().replace("&", "&amp;");
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static String formatDate(final Long millis) {
+		final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(millis == null ? 0 : millis));
+	}
+
+	private static void send(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private static String md5(final String text) {
+		return md5(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String md5(final byte[] bytes) {
+		return Digests.toHex(md5Bytes(bytes));
+	}
+
+	private static byte[] md5Bytes(final byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("MD5").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Lists the paths of all files, for assertions in tests.
+	 */
+	public synchronized List<String> listFiles() {
+		return new ArrayList<>(files.keySet());
+	}
+}
@@ -0,0 +1,703 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2023 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.plugins.uploaders.webdav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.updater.Uploadable;
+import net.imagej.updater.UploadableFile;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the {@link WebDAVUploader} against the in-process
+ * {@link WebDAVTestServer}, i.e. without needing a real WebDAV server.
+ */
+public class WebDAVUploaderLocalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private WebDAVTestServer server;
+
+	/** The journal directory of the uploaders; journaling is opt-in. */
+	private String journals;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new WebDAVTestServer("user", "secret");
+		journals = folder.newFolder("journals").getPath();
+	}
+
+	@After
+	public void stopServer() {
+		server.close();
+	}
+
+	@Test
+	public void testDirectories() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		assertTrue(uploader.directoryExists(""));
+		assertFalse(uploader.directoryExists("lib/linux64"));
+		assertTrue(uploader.ensureDirectoryExists("lib/linux64/"));
+		assertTrue(server.isDirectory("lib/"));
+		assertTrue(server.isDirectory("lib/linux64/"));
+	}
+
+	@Test
+	public void testUploadWithLock() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		final byte[] db = randomBytes(1000);
+		final byte[] jar = randomBytes(5000);
+		final List<Uploadable> sources = Arrays.asList(
+			createUploadable("db.xml.gz.lock", db),
+			createUploadable("jars/deep/nested/Some Plugin.jar-20230101120000", jar));
+		uploader.upload(sources, Collections.singletonList("db.xml.gz"));
+
+		assertArrayEquals(db, server.getFile("db.xml.gz"));
+		assertArrayEquals(jar, server.getFile("jars/deep/nested/Some Plugin.jar-20230101120000"));
+		assertNull(server.getFile("db.xml.gz.lock"));
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+	}
+
+	@Test
+	public void testFailedLockReleasesOtherLocks() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		server.lock("b.lock");
+		final List<Uploadable> sources = Collections.singletonList(createUploadable("a.lock", randomBytes(10)));
+		try {
+			uploader.upload(sources, Arrays.asList("a", "b", "c"));
+			fail("Obtained a lock held by somebody else");
+		} catch (IOException e) {
+			// expected
+		}
+		assertFalse(server.isLocked("a.lock"));
+		assertTrue(server.isLocked("b.lock"));
+		assertFalse(server.isLocked("c.lock"));
+		assertEquals(0, server.getRequestCount("PUT"));
+	}
+
+	@Test
+	public void testPreemptiveAuthentication() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(uploader.directoryExists(""));
+		}
+		assertEquals(1, server.getChallengeCount());
+	}
+
+	@Test
+	public void testNewCredentialsResetAuthCache() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		assertTrue(uploader.directoryExists(""));
+		uploader.setCredentials("user", "wrong");
+		try {
+			uploader.directoryExists("");
+			fail("Authenticated with a wrong password");
+		} catch (WebDAVUploader.UnauthenticatedException e) {
+			// expected
+		}
+
+		uploader.setCredentials("user", "secret");
+		final long challenges = server.getChallengeCount();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(uploader.directoryExists(""));
+		}
+		assertEquals(challenges + 1, server.getChallengeCount());
+	}
+
+	@Test
+	public void testConcurrentUpload() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.threads", "4", this::createUploader);
+		final List<Uploadable> sources = new ArrayList<>();
+		final List<byte[]> contents = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			contents.add(randomBytes(1000 + i));
+			sources.add(createUploadable("plugins/dir" + (i % 3) + "/file" + i + ".jar", contents.get(i)));
+		}
+		uploader.upload(sources, Collections.<String>emptyList());
+		for (int i = 0; i < 20; i++) {
+			assertArrayEquals(contents.get(i), server.getFile(sources.get(i).getFilename()));
+		}
+	}
+
+	@Test
+	public void testConcurrencyIsBounded() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.threads", "3", this::createUploader);
+		server.setDelay("PUT", 100);
+		final List<Uploadable> sources = new ArrayList<>();
+		for (int i = 0; i < 9; i++) {
+			sources.add(createUploadable("jars/file" + i + ".jar", randomBytes(100 + i)));
+		}
+		uploader.upload(sources, Collections.<String>emptyList());
+		assertEquals(9, server.getRequestCount("PUT"));
+		assertEquals(3, server.getMaxConcurrentRequests("PUT"));
+	}
+
+	@Test
+	public void testFailureCancelsPendingUploads() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.threads", "2", this::createUploader);
+		uploader.setTransport((request, context) -> {
+			if ("PUT".equals(request.getMethod()) && request.getURI().getPath().endsWith("/file0.jar")) {
+				return new BasicHttpResponse(HttpVersion.HTTP_1_1, 507, "Insufficient Storage");
+			}
+			return WebDAVUploader.client.execute(request, context);
+		});
+		server.setDelay("PUT", 50);
+		final List<Uploadable> sources = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			sources.add(createUploadable("jars/file" + i + ".jar", randomBytes(100 + i)));
+		}
+		try {
+			uploader.upload(sources, Collections.<String>emptyList());
+			fail("Upload succeeded although the server refused a file");
+		} catch (IOException e) {
+			// expected
+		}
+		assertTrue(server.getRequestCount("PUT") < 19);
+	}
+
+	@Test
+	public void testFailureAbortsUploadsInFlight() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.threads", "2", this::createUploader);
+		final CountDownLatch stuck = new CountDownLatch(1);
+		final List<String> events = Collections.synchronizedList(new ArrayList<>());
+		uploader.setTransport((request, context) -> {
+			final String path = request.getURI().getPath();
+			if ("PUT".equals(request.getMethod()) && path.endsWith("/stuck.jar")) {
+				// a transfer that hangs until it is aborted
+				stuck.countDown();
+				while (!((HttpRequestBase) request).isAborted()) {
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						// interrupts do not stop a blocking socket write either
+					}
+				}
+				events.add("aborted");
+				throw new IOException("Request aborted");
+			}
+			if ("PUT".equals(request.getMethod()) && path.endsWith("/failing.jar")) {
+				try {
+					stuck.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				return new BasicHttpResponse(HttpVersion.HTTP_1_1, 507, "Insufficient Storage");
+			}
+			if ("UNLOCK".equals(request.getMethod())) events.add("unlock");
+			return WebDAVUploader.client.execute(request, context);
+		});
+		try {
+			uploader.upload(Arrays.asList(createUploadable("db.xml.gz.lock", randomBytes(100)),
+				createUploadable("jars/stuck.jar", randomBytes(3000)),
+				createUploadable("jars/failing.jar", randomBytes(3000))), Collections.singletonList("db.xml.gz"));
+			fail("Upload succeeded although the server refused a file");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList("aborted", "unlock"), events);
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+
+		// the uploader can be used again
+		uploader.setTransport((request, context) -> WebDAVUploader.client.execute(request, context));
+		uploader.upload(Collections.singletonList(createUploadable("db.xml.gz.lock", randomBytes(100))),
+			Collections.singletonList("db.xml.gz"));
+		assertArrayEquals(randomBytes(100), server.getFile("db.xml.gz"));
+	}
+
+	@Test
+	public void testPrefetchDirectories() throws Exception {
+		final List<Uploadable> sources = createNestedUploadables();
+		server.resetCounters();
+		withProperty("webdav.verifyUploads", "false", this::createUploader)
+			.upload(sources, Collections.<String>emptyList());
+		// the root when checking the site, then a single Depth: infinity
+		// PROPFIND, and only the new directories are made
+		assertEquals(2, server.getRequestCount("PROPFIND"));
+		assertEquals(2, server.getRequestCount("MKCOL"));
+		for (final Uploadable source : sources) {
+			assertNotNull(server.getFile(source.getFilename()));
+		}
+	}
+
+	@Test
+	public void testPrefetchDirectoriesLevelByLevel() throws Exception {
+		final List<Uploadable> sources = createNestedUploadables();
+		server.setInfinityAllowed(false);
+		server.resetCounters();
+		withProperty("webdav.verifyUploads", "false", this::createUploader)
+			.upload(sources, Collections.<String>emptyList());
+		// the root when checking the site, the refused Depth: infinity, then
+		// the root and jars/, but not plugins/
+		assertEquals(4, server.getRequestCount("PROPFIND"));
+		assertEquals(2, server.getRequestCount("MKCOL"));
+		for (final Uploadable source : sources) {
+			assertNotNull(server.getFile(source.getFilename()));
+		}
+	}
+
+	/**
+	 * Makes the directories <code>jars/a/</code> and <code>plugins/</code> on
+	 * the server, and returns files to upload into them, and into the new
+	 * directory <code>new/dir/</code>.
+	 */
+	private List<Uploadable> createNestedUploadables() throws IOException {
+		final WebDAVUploader uploader = createUploader();
+		assertTrue(uploader.ensureDirectoryExists("jars/a/"));
+		assertTrue(uploader.ensureDirectoryExists("plugins/"));
+		return Arrays.asList(createUploadable("jars/a/x.jar", randomBytes(10)),
+			createUploadable("jars/a/y.jar", randomBytes(11)),
+			createUploadable("plugins/p.jar", randomBytes(12)),
+			createUploadable("new/dir/z.jar", randomBytes(13)));
+	}
+
+	@Test
+	public void testSkipUnchanged() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.skipUnchanged", "true", this::createUploader);
+		final byte[] content = randomBytes(2000);
+		final List<Uploadable> sources = Collections.singletonList(createUploadable("jars/unchanged.jar", content));
+		uploader.upload(sources, Collections.<String>emptyList());
+		assertArrayEquals(content, server.getFile("jars/unchanged.jar"));
+
+		server.resetCounters();
+		uploader.upload(sources, Collections.<String>emptyList());
+		assertEquals(0, server.getRequestCount("PUT"));
+	}
+
+	@Test
+	public void testUploadChangedContentOfSameSize() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.skipUnchanged", "true", this::createUploader);
+		uploader.upload(Collections.singletonList(createUploadable("jars/changed.jar", randomBytes(2000))),
+			Collections.<String>emptyList());
+
+		server.resetCounters();
+		final byte[] changed = randomBytes(2000);
+		changed[1000]++;
+		uploader.upload(Collections.singletonList(createUploadable("jars/changed.jar", changed)),
+			Collections.<String>emptyList());
+		assertEquals(1, server.getRequestCount("PUT"));
+		assertArrayEquals(changed, server.getFile("jars/changed.jar"));
+	}
+
+	@Test
+	public void testChecksumHeaders() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		final Map<String, String> checksums = new ConcurrentHashMap<>();
+		uploader.setTransport((request, context) -> {
+			final Header header = request.getFirstHeader("OC-Checksum");
+			if ("PUT".equals(request.getMethod()) && header != null) {
+				checksums.put(request.getURI().getPath(), header.getValue());
+			}
+			return WebDAVUploader.client.execute(request, context);
+		});
+		final byte[] content = randomBytes(5000);
+		final AtomicInteger reads = new AtomicInteger();
+		final Uploadable file = createUploadable("jars/small.jar-20230101120000", content);
+		final Uploadable counting = new Uploadable() {
+
+			@Override
+			public String getFilename() {
+				return file.getFilename();
+			}
+
+			@Override
+			public long getFilesize() {
+				return file.getFilesize();
+			}
+
+			@Override
+			public long getTimestamp() {
+				return file.getTimestamp();
+			}
+
+			@Override
+			public InputStream getInputStream() throws IOException {
+				reads.incrementAndGet();
+				return file.getInputStream();
+			}
+		};
+		uploader.upload(Collections.singletonList(counting), Collections.<String>emptyList());
+
+		assertArrayEquals(content, server.getFile("jars/small.jar-20230101120000"));
+		final String md5 = Digests.toHex(MessageDigest.getInstance("MD5").digest(content));
+		assertEquals("MD5:" + md5, checksums.get(new URL(server.getURL() + "jars/small.jar-20230101120000").getPath()));
+		// digested and sent in a single pass
+		assertEquals(1, reads.get());
+	}
+
+	@Test
+	public void testVerificationDetectsCorruptedUploads() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		server.setCorruptingBodies(true);
+		try {
+			uploader.upload(Arrays.asList(createUploadable("db.xml.gz.lock", randomBytes(100)),
+				// larger than the checksum header limit, so only digested while sent
+				createUploadable("jars/large.jar-20230101120000", randomBytes((1 << 20) + 1))),
+				Collections.singletonList("db.xml.gz"));
+			fail("Upload succeeded although the server stored different content");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("jars/large.jar-20230101120000"));
+		}
+		assertNull(server.getFile("db.xml.gz"));
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+	}
+
+	@Test
+	public void testCompressedUpload() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.compress", "true", this::createUploader);
+		final byte[] db = randomBytes(100);
+		final byte[] macro = compressibleText(65536);
+		uploader.upload(Arrays.asList(createUploadable("db.xml.gz.lock", db),
+			createUploadable("macros/tools.ijm", macro)), Collections.singletonList("db.xml.gz"));
+		assertArrayEquals(db, server.getFile("db.xml.gz"));
+		assertArrayEquals(macro, server.getFile("macros/tools.ijm"));
+		assertTrue(server.getBytesReceived() < macro.length / 4);
+		// the probe went to the lock file
+		assertEquals(Arrays.asList("db.xml.gz", "macros/tools.ijm"), server.listFiles());
+	}
+
+	@Test
+	public void testCompressionNotDecoded() throws Exception {
+		server.setDecodingBodies(false);
+		final WebDAVUploader uploader = withProperty("webdav.compress", "true", this::createUploader);
+		final byte[] db = randomBytes(100);
+		final byte[] macro = compressibleText(65536);
+		uploader.upload(Arrays.asList(createUploadable("db.xml.gz.lock", db),
+			createUploadable("macros/tools.ijm", macro)), Collections.singletonList("db.xml.gz"));
+		assertArrayEquals(db, server.getFile("db.xml.gz"));
+		assertArrayEquals(macro, server.getFile("macros/tools.ijm"));
+		assertTrue(server.getBytesReceived() > macro.length);
+		assertEquals(Arrays.asList("db.xml.gz", "macros/tools.ijm"), server.listFiles());
+	}
+
+	@Test
+	public void testResumableUpload() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.resumableThreshold", "1000",
+			() -> withProperty("webdav.segmentSize", "300", this::createUploader));
+		final byte[] content = randomBytes(1234);
+		uploader.upload(Collections.singletonList(createUploadable("large.bin", content)), Collections.<String>emptyList());
+		assertArrayEquals(content, server.getFile("large.bin"));
+		assertTrue(server.getRequestCount("PUT") >= 5);
+	}
+
+	@Test
+	public void testResumeFailedSegments() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.maxRetries", "0",
+			() -> withProperty("webdav.resumableThreshold", "1000",
+				() -> withProperty("webdav.segmentSize", "300", this::createUploader)));
+		final Set<String> failed = ConcurrentHashMap.newKeySet();
+		uploader.setTransport((request, context) -> {
+			final Header range = request.getFirstHeader("Content-Range");
+			if (range != null && failed.add(range.getValue())) {
+				if (range.getValue().startsWith("bytes 300-")) {
+					throw new SocketException("Connection reset");
+				}
+				if (range.getValue().startsWith("bytes 600-")) {
+					// the server receives the segment, but the response is lost
+					EntityUtils.consume(WebDAVUploader.client.execute(request, context).getEntity());
+					throw new SocketException("Connection reset");
+				}
+			}
+			return WebDAVUploader.client.execute(request, context);
+		});
+		final byte[] content = randomBytes(1234);
+		uploader.upload(Collections.singletonList(createUploadable("large.bin", content)), Collections.<String>emptyList());
+		assertArrayEquals(content, server.getFile("large.bin"));
+		// the failed segment is sent again, the one whose response was lost is not
+		assertEquals(5, server.getRequestCount("PUT"));
+	}
+
+	@Test
+	public void testResumableUploadWithoutRangedPuts() throws Exception {
+		server.setRangedPutSupported(false);
+		final WebDAVUploader uploader = withProperty("webdav.resumableThreshold", "1000",
+			() -> withProperty("webdav.segmentSize", "300", this::createUploader));
+		final byte[] content = randomBytes(1234);
+		uploader.upload(Collections.singletonList(createUploadable("large.bin", content)), Collections.<String>emptyList());
+		assertArrayEquals(content, server.getFile("large.bin"));
+
+		// the next large file is uploaded in one go right away
+		server.resetCounters();
+		final byte[] other = randomBytes(1500);
+		uploader.upload(Collections.singletonList(createUploadable("other.bin", other)), Collections.<String>emptyList());
+		assertArrayEquals(other, server.getFile("other.bin"));
+		assertEquals(1, server.getRequestCount("PUT"));
+	}
+
+	@Test
+	public void testResumeInterruptedUpload() throws Exception {
+		final List<Uploadable> sources = Arrays.asList(
+			createUploadable("db.xml.gz.lock", randomBytes(100)),
+			createUploadable("jars/a.jar-20230101120000", randomBytes(3000)),
+			createUploadable("jars/b.jar-20230101120000", randomBytes(4000)));
+
+		final WebDAVUploader interrupted = createUploader();
+		final WebDAVUploader uploader = createUploader();
+		interrupted.setTransport((request, context) -> {
+			if ("PUT".equals(request.getMethod()) && request.getURI().getPath().endsWith("/b.jar-20230101120000")) {
+				return new BasicHttpResponse(HttpVersion.HTTP_1_1, 507, "Insufficient Storage");
+			}
+			return WebDAVUploader.client.execute(request, context);
+		});
+		try {
+			interrupted.upload(sources, Collections.singletonList("db.xml.gz"));
+			fail("Upload succeeded although the server refused a file");
+		} catch (IOException e) {
+			// expected
+		}
+
+		server.resetCounters();
+		uploader.upload(sources, Collections.singletonList("db.xml.gz"));
+		// the lock file and b.jar, but not a.jar
+		assertEquals(2, server.getRequestCount("PUT"));
+		assertArrayEquals(randomBytes(4000), server.getFile("jars/b.jar-20230101120000"));
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+		assertEquals(0, new File(journals).list().length);
+	}
+
+	@Test
+	public void testDeduplicate() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.deduplicate", "true", this::createUploader);
+		final byte[] content = randomBytes(3000);
+		uploader.upload(Collections.singletonList(createUploadable("jars/dep.jar-20230101120000", content)),
+			Collections.<String>emptyList());
+
+		server.resetCounters();
+		uploader.upload(Arrays.asList(createUploadable("jars/dep.jar-20240101120000", content),
+			createUploadable("jars/other.jar-20240101120000", randomBytes(3001))), Collections.<String>emptyList());
+		assertEquals(1, server.getRequestCount("COPY"));
+		assertEquals(1, server.getRequestCount("PUT"));
+		assertArrayEquals(content, server.getFile("jars/dep.jar-20240101120000"));
+		assertArrayEquals(content, server.getFile("jars/dep.jar-20230101120000"));
+	}
+
+	@Test
+	public void testMirrors() throws Exception {
+		try (WebDAVTestServer mirror = new WebDAVTestServer("user", "secret")) {
+			final WebDAVTestServer unreachable = new WebDAVTestServer("user", "secret");
+			unreachable.close();
+			final WebDAVUploader uploader = createUploader();
+			uploader.addMirror(mirror.getURL());
+			uploader.addMirror(unreachable.getURL());
+
+			final byte[] db = randomBytes(1000);
+			final byte[] jar = randomBytes(3 << 20);
+			uploader.upload(Arrays.asList(createUploadable("db.xml.gz.lock", db),
+				createUploadable("jars/large.jar-20230101120000", jar)), Collections.singletonList("db.xml.gz"));
+
+			for (final WebDAVTestServer site : Arrays.asList(server, mirror)) {
+				assertArrayEquals(db, site.getFile("db.xml.gz"));
+				assertArrayEquals(jar, site.getFile("jars/large.jar-20230101120000"));
+				assertFalse(site.isLocked("db.xml.gz.lock"));
+				assertEquals(2, site.getRequestCount("PUT"));
+			}
+			assertEquals(Collections.singleton(unreachable.getURL()), uploader.getMirrorFailures().keySet());
+		}
+	}
+
+	@Test
+	public void testInvalidMirrorsAreNotLocked() throws Exception {
+		try (WebDAVTestServer otherUser = new WebDAVTestServer("other", "secret");
+				WebDAVTestServer mirror = new WebDAVTestServer("user", "secret")) {
+			final WebDAVUploader uploader = createUploader();
+			uploader.addMirror(otherUser.getURL());
+			uploader.addMirror(mirror.getURL() + "missing/");
+
+			final byte[] db = randomBytes(1000);
+			uploader.upload(Collections.singletonList(createUploadable("db.xml.gz.lock", db)),
+				Collections.singletonList("db.xml.gz"));
+
+			assertArrayEquals(db, server.getFile("db.xml.gz"));
+			assertEquals(0, otherUser.getRequestCount("LOCK"));
+			assertEquals(0, mirror.getRequestCount("LOCK"));
+			assertEquals(new HashSet<>(Arrays.asList(otherUser.getURL(), mirror.getURL() + "missing/")),
+				uploader.getMirrorFailures().keySet());
+		}
+	}
+
+	@Test
+	public void testCancelAsyncUpload() throws Exception {
+		final WebDAVUploader uploader = createUploader();
+		final CountDownLatch stuck = new CountDownLatch(1);
+		uploader.setTransport((request, context) -> {
+			if ("PUT".equals(request.getMethod()) && request.getURI().getPath().endsWith("/stuck.jar-20230101120000")) {
+				// a transfer that hangs until it is aborted
+				stuck.countDown();
+				while (!((HttpRequestBase) request).isAborted()) {
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				throw new IOException("Request aborted");
+			}
+			return WebDAVUploader.client.execute(request, context);
+		});
+
+		final AsyncUpload upload = uploader.uploadAsync(Arrays.asList(createUploadable("db.xml.gz.lock", randomBytes(100)),
+			createUploadable("jars/stuck.jar-20230101120000", randomBytes(3000))), Collections.singletonList("db.xml.gz"));
+		assertTrue(stuck.await(10, TimeUnit.SECONDS));
+		assertFalse(upload.getSession().isDone());
+
+		upload.cancel().get(10, TimeUnit.SECONDS);
+		assertTrue(upload.getSession().isCancelled());
+		assertTrue(upload.getFile("jars/stuck.jar-20230101120000").isCompletedExceptionally());
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+		assertNull(server.getFile("db.xml.gz"));
+
+		// the uploader can be used again
+		uploader.setTransport((request, context) -> WebDAVUploader.client.execute(request, context));
+		final AsyncUpload next = uploader.uploadAsync(Collections.singletonList(createUploadable("db.xml.gz.lock",
+			randomBytes(100))), Collections.singletonList("db.xml.gz"));
+		next.getSession().get(10, TimeUnit.SECONDS);
+		assertTrue(next.getFile("db.xml.gz.lock").isDone());
+		assertArrayEquals(randomBytes(100), server.getFile("db.xml.gz"));
+	}
+
+	@Test
+	public void testUnlockIsRetriedAfterCancel() throws Exception {
+		final WebDAVUploader uploader = withProperty("webdav.retryDelay", "10", this::createUploader);
+		final CountDownLatch stuck = new CountDownLatch(1);
+		final AtomicInteger unlocks = new AtomicInteger();
+		uploader.setTransport((request, context) -> {
+			if ("PUT".equals(request.getMethod()) && request.getURI().getPath().endsWith("/stuck.jar-20230101120000")) {
+				stuck.countDown();
+				while (!((HttpRequestBase) request).isAborted()) {
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				throw new IOException("Request aborted");
+			}
+			if ("UNLOCK".equals(request.getMethod()) && unlocks.incrementAndGet() == 1) {
+				return new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable");
+			}
+			return WebDAVUploader.client.execute(request, context);
+		});
+
+		final AsyncUpload upload = uploader.uploadAsync(Arrays.asList(createUploadable("db.xml.gz.lock", randomBytes(100)),
+			createUploadable("jars/stuck.jar-20230101120000", randomBytes(3000))), Collections.singletonList("db.xml.gz"));
+		assertTrue(stuck.await(10, TimeUnit.SECONDS));
+		upload.cancel().get(10, TimeUnit.SECONDS);
+
+		// the back-off before retrying the UNLOCK is not cut short by the cancellation
+		assertEquals(2, unlocks.get());
+		assertFalse(server.isLocked("db.xml.gz.lock"));
+	}
+
+	private WebDAVUploader createUploader() throws IOException {
+		final WebDAVUploader uploader = withProperty("webdav.journalDir", journals, WebDAVUploader::new);
+		uploader.setBaseUrl(server.getURL());
+		uploader.setCredentials("user", "secret");
+		return uploader;
+	}
+
+	private Uploadable createUploadable(final String target, final byte[] content) throws IOException {
+		final File file = folder.newFile();
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(content);
+		}
+		return new UploadableFile(file, target);
+	}
+
+	private static byte[] compressibleText(final int size) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; builder.length() < size; i++) {
+			builder.append("run(\"Gaussian Blur...\", \"sigma=").append(i % 10).append("\");\n");
+		}
+		return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] randomBytes(final int size) {
+		final byte[] result = new byte[size];
+		new Random(size).nextBytes(result);
+		return result;
+	}
+
+	interface Factory<T> {
+		T create() throws IOException;
+	}
+
+	private static <T> T withProperty(final String key, final String value, final Factory<T> factory) throws IOException {
+		final String previous = System.getProperty(key);
+		System.setProperty(key, value);
+		try {
+			return factory.create();
+		} finally {
+			if (previous == null) System.clearProperty(key);
+			else System.setProperty(key, previous);
+		}
+	}
+}